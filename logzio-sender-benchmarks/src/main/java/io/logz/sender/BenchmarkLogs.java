@@ -0,0 +1,70 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Logs and a silent reporter shared by the benchmarks.
+ * The benchmarks are in the sender's package, so they can measure its package-private parts on their own.
+ */
+final class BenchmarkLogs {
+    static final SenderStatusReporter SILENT_REPORTER = new SenderStatusReporter() {
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable throwable) {
+        }
+
+        @Override
+        public void warning(String msg) {
+        }
+
+        @Override
+        public void warning(String msg, Throwable throwable) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable throwable) {
+        }
+    };
+
+    private BenchmarkLogs() {
+    }
+
+    /**
+     * @param messageSize the length of the message field, the rest of the log is about 100 bytes
+     */
+    static JsonObject jsonLog(int messageSize, int seed) {
+        StringBuilder message = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            message.append((char) ('a' + (i * 31 + seed) % 26));
+        }
+        JsonObject log = new JsonObject();
+        log.addProperty("message", message.toString());
+        log.addProperty("@timestamp", "2024-01-01T00:00:00.000Z");
+        log.addProperty("loglevel", "INFO");
+        log.addProperty("logger", "io.logz.sender.benchmark.Logger" + seed % 8);
+        log.addProperty("thread", "benchmark-" + seed % 4);
+        return log;
+    }
+
+    static byte[] byteLog(int messageSize, int seed) {
+        return jsonLog(messageSize, seed).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static HttpsRequestConfiguration configuration(String listenerUrl, boolean compressRequests) throws Exception {
+        return HttpsRequestConfiguration.builder()
+                .setLogzioToken("benchmarkToken")
+                .setLogzioType("benchmark")
+                .setLogzioListenerUrl(listenerUrl)
+                .setCompressRequests(compressRequests)
+                .build();
+    }
+}
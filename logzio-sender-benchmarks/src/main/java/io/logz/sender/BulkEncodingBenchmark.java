@@ -0,0 +1,55 @@
+package io.logz.sender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a bulk into a request body, with and without gzip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkEncodingBenchmark {
+    @Param({"false", "true"})
+    private boolean compressRequests;
+
+    @Param({"100", "1000"})
+    private int bulkSize;
+
+    @Param({"500"})
+    private int messageSize;
+
+    private HttpsSyncSender httpsSyncSender;
+    private final List<FormattedLogMessage> bulk = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        httpsSyncSender = new HttpsSyncSender(BenchmarkLogs.configuration("http://localhost:1", compressRequests),
+                BenchmarkLogs.SILENT_REPORTER, null, new DeflaterPool(1), new SenderMetrics(null), null);
+        for (int i = 0; i < bulkSize; i++) {
+            bulk.add(new FormattedLogMessage(BenchmarkLogs.byteLog(messageSize, i)));
+        }
+    }
+
+    @Benchmark
+    public byte[] toNewLineSeparatedByteArray() {
+        return httpsSyncSender.toNewLineSeparatedByteArray(bulk);
+    }
+}
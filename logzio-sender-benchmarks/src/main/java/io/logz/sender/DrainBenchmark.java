@@ -0,0 +1,97 @@
+package io.logz.sender;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending logs and flushing them to a local listener that only reads and acknowledges the requests,
+ * so the score is the throughput of the whole pipeline: enqueue, bulk assembly, encoding and HTTP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(DrainBenchmark.LOGS_PER_FLUSH)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DrainBenchmark {
+    static final int LOGS_PER_FLUSH = 10000;
+    private static final int DISTINCT_LOGS = 64;
+
+    @Param({"false", "true"})
+    private boolean compressRequests;
+
+    @Param({"500"})
+    private int messageSize;
+
+    private HttpServer listener;
+    private ScheduledExecutorService tasks;
+    private LogzioSender sender;
+    private final byte[][] logs = new byte[DISTINCT_LOGS][];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        listener = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        listener.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.transferTo(OutputStream.nullOutputStream());
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        listener.setExecutor(Executors.newFixedThreadPool(4));
+        listener.start();
+
+        tasks = Executors.newScheduledThreadPool(2);
+        sender = LogzioSender.builder()
+                .setReporter(BenchmarkLogs.SILENT_REPORTER)
+                .setTasksExecutor(tasks)
+                .setWithOpentelemetryContext(false)
+                // Only flush() drains, so each invocation sends what it enqueued
+                .setDrainTimeoutSec(3600)
+                .setHttpsRequestConfiguration(BenchmarkLogs.configuration(
+                        "http://localhost:" + listener.getAddress().getPort(), compressRequests))
+                .withInMemoryQueue()
+                .endInMemoryQueue()
+                .build();
+        sender.start();
+        for (int i = 0; i < DISTINCT_LOGS; i++) {
+            logs[i] = BenchmarkLogs.byteLog(messageSize, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.stop();
+        tasks.shutdownNow();
+        listener.stop(0);
+    }
+
+    @Benchmark
+    public void sendAndFlush() throws Exception {
+        for (int i = 0; i < LOGS_PER_FLUSH; i++) {
+            sender.send(logs[i & (DISTINCT_LOGS - 1)]);
+        }
+        sender.flush().get(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,88 @@
+package io.logz.sender;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Enqueue and dequeue of one log on the in memory and disk queues, shared by all benchmark threads.
+ * {@link SenderBenchmarks} runs it with 1 to 64 threads; with the JMH command line, pass -t.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueBenchmark {
+    @Param({"memory", "disk"})
+    private String queueType;
+
+    @Param({"1000"})
+    private int messageSize;
+
+    private ScheduledExecutorService tasks;
+    private File queueDir;
+    private LogsQueue queue;
+    private byte[] log;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        tasks = Executors.newSingleThreadScheduledExecutor();
+        log = BenchmarkLogs.byteLog(messageSize, 0);
+        if (queueType.equals("disk")) {
+            queueDir = Files.createTempDirectory("logzio-sender-benchmark").toFile();
+            queue = LogzioSender.builder()
+                    .withDiskQueue()
+                    .setQueueDir(new File(queueDir, "queue"))
+                    .setFsPercentThreshold(-1)
+                    .setDiskSpaceTasks(tasks)
+                    .setReporter(BenchmarkLogs.SILENT_REPORTER)
+                    .build();
+        } else {
+            queue = LogzioSender.builder()
+                    .withInMemoryQueue()
+                    .setCapacityInBytes(InMemoryQueue.DONT_LIMIT_QUEUE_SPACE)
+                    .setReporter(BenchmarkLogs.SILENT_REPORTER)
+                    .build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        queue.clear();
+        queue.close();
+        tasks.shutdownNow();
+        if (queueDir != null) {
+            try (Stream<Path> files = Files.walk(queueDir.toPath())) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Benchmark
+    public FormattedLogMessage enqueueDequeue() {
+        queue.enqueue(log);
+        return queue.dequeueMessage();
+    }
+}
@@ -0,0 +1,87 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * send(JsonObject) against send(byte[]): serializing or validating a log, and adding it to the in memory queue.
+ * The sender is not started, so nothing is drained; the queue is cleared every {@value #CLEAR_EVERY} logs instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+    private static final int CLEAR_EVERY = 4096;
+    private static final int DISTINCT_LOGS = 16;
+
+    @Param({"100", "1000", "10000"})
+    private int messageSize;
+
+    private ScheduledExecutorService tasks;
+    private LogzioSender sender;
+    private final JsonObject[] jsonLogs = new JsonObject[DISTINCT_LOGS];
+    private final byte[][] byteLogs = new byte[DISTINCT_LOGS][];
+    private int sent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        tasks = Executors.newSingleThreadScheduledExecutor();
+        sender = LogzioSender.builder()
+                .setReporter(BenchmarkLogs.SILENT_REPORTER)
+                .setTasksExecutor(tasks)
+                .setWithOpentelemetryContext(false)
+                .setHttpsRequestConfiguration(BenchmarkLogs.configuration("http://localhost:1", false))
+                .withInMemoryQueue()
+                .setCapacityInBytes(InMemoryQueue.DONT_LIMIT_QUEUE_SPACE)
+                .endInMemoryQueue()
+                .build();
+        for (int i = 0; i < DISTINCT_LOGS; i++) {
+            jsonLogs[i] = BenchmarkLogs.jsonLog(messageSize, i);
+            byteLogs[i] = BenchmarkLogs.byteLog(messageSize, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.clearQueue();
+        tasks.shutdownNow();
+    }
+
+    @Benchmark
+    public void sendJsonObject() throws IOException {
+        sender.send(jsonLogs[sent & (DISTINCT_LOGS - 1)]);
+        clearEvery();
+    }
+
+    @Benchmark
+    public void sendBytes() throws IOException {
+        sender.send(byteLogs[sent & (DISTINCT_LOGS - 1)]);
+        clearEvery();
+    }
+
+    private void clearEvery() throws IOException {
+        if (++sent % CLEAR_EVERY == 0) {
+            sender.clearQueue();
+        }
+    }
+}
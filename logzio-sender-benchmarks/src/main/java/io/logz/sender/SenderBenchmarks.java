@@ -0,0 +1,41 @@
+package io.logz.sender;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so allocation per operation is reported next to each score,
+ * and the queue benchmark with 1, 4, 16 and 64 threads.
+ * Arguments are JMH options, for example a benchmark name regex or -rf json to keep the results.
+ */
+public class SenderBenchmarks {
+    private static final int[] QUEUE_THREADS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (!commandLine.getIncludes().isEmpty()) {
+            new Runner(options(commandLine).build()).run();
+            return;
+        }
+        new Runner(options(commandLine)
+                .include(SendBenchmark.class.getSimpleName())
+                .include(BulkEncodingBenchmark.class.getSimpleName())
+                .include(DrainBenchmark.class.getSimpleName())
+                .build()).run();
+        for (int threads : QUEUE_THREADS) {
+            new Runner(options(commandLine)
+                    .include(QueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+
+    private static ChainedOptionsBuilder options(CommandLineOptions commandLine) {
+        return new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+    }
+}
@@ -17,17 +17,26 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
@@ -47,6 +56,17 @@ public class MockLogzioBulkListener implements Closeable {
     private boolean raiseExceptionOnLog = false;
     private int timeoutMillis = 10000;
 
+    private volatile boolean countingOnly = false;
+    private volatile LongSupplier responseLatencyMillis = fixedLatency(0);
+    private final Map<Integer, Double> errorProbabilities = new ConcurrentHashMap<>();
+    private volatile double dropConnectionProbability = 0;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder countedLogs = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder droppedConnections = new LongAdder();
+    private final Map<Integer, LongAdder> injectedErrors = new ConcurrentHashMap<>();
+    private volatile long statsStartNanos = System.nanoTime();
+
     public void setFailWithServerError(boolean raiseExceptionOnLog) {
         this.raiseExceptionOnLog = raiseExceptionOnLog;
     }
@@ -57,6 +77,55 @@ public class MockLogzioBulkListener implements Closeable {
         this.timeoutMillis = timeoutMillis;
     }
 
+    /**
+     * @param countingOnly only count the logs and bytes of each request, without parsing or keeping them,
+     *                     so memory stays bounded under sustained load. The assertions on single logs don't work in this mode.
+     */
+    public void setCountingOnly(boolean countingOnly) {
+        this.countingOnly = countingOnly;
+    }
+
+    /**
+     * @param responseLatencyMillis how long to wait before answering each request, see {@link #fixedLatency},
+     *                              {@link #uniformLatency} and {@link #exponentialLatency}
+     */
+    public void setResponseLatency(LongSupplier responseLatencyMillis) {
+        this.responseLatencyMillis = responseLatencyMillis;
+    }
+
+    /**
+     * Answers requests with an HTTP status instead of accepting them, such as 429, 503 or 400.
+     *
+     * @param probability the chance of each request to get the status, 0 stops injecting it
+     */
+    public void setErrorProbability(int status, double probability) {
+        if (probability <= 0) {
+            errorProbabilities.remove(status);
+        } else {
+            errorProbabilities.put(status, probability);
+        }
+    }
+
+    /**
+     * @param dropConnectionProbability the chance of each request to have its connection closed after reading half of its body,
+     *                                  without any response
+     */
+    public void setDropConnectionProbability(double dropConnectionProbability) {
+        this.dropConnectionProbability = dropConnectionProbability;
+    }
+
+    public static LongSupplier fixedLatency(long millis) {
+        return () -> millis;
+    }
+
+    public static LongSupplier uniformLatency(long minMillis, long maxMillis) {
+        return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+    }
+
+    public static LongSupplier exponentialLatency(double meanMillis) {
+        return () -> (long) (-meanMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+    }
+
     public MockLogzioBulkListener() throws IOException {
         this.host = LISTENER_ADDRESS;
         this.port = findFreePort();
@@ -66,6 +135,22 @@ public class MockLogzioBulkListener implements Closeable {
             @Override
             protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
                 logger.debug("got request with query string: {} ({})", request.getQueryString(), this);
+                requests.increment();
+                waitResponseLatency();
+                if (dropConnectionProbability > 0 && ThreadLocalRandom.current().nextDouble() < dropConnectionProbability) {
+                    readHalfOfBody(request);
+                    droppedConnections.increment();
+                    // Jetty aborts the connection without a response for -1
+                    response.sendError(-1);
+                    return;
+                }
+                Integer injectedError = pickInjectedError();
+                if (injectedError != null) {
+                    request.getInputStream().transferTo(OutputStream.nullOutputStream());
+                    injectedErrors.computeIfAbsent(injectedError, status -> new LongAdder()).increment();
+                    response.setStatus(injectedError);
+                    return;
+                }
                 if (isServerTimeoutMode) {
                     try {
                         Thread.sleep(timeoutMillis);
@@ -76,6 +161,11 @@ public class MockLogzioBulkListener implements Closeable {
                         // swallow
                     }
                 }
+                if (countingOnly) {
+                    countLogs(request);
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    return;
+                }
                 // Bulks are \n delimited, so handling each log separately
                 try (Stream<String> logStream = getLogsStream(request)) {
                     logStream.forEach(line -> {
@@ -85,6 +175,8 @@ public class MockLogzioBulkListener implements Closeable {
                         String queryString = request.getQueryString();
                         LogRequest tmpRequest = new LogRequest(queryString, line);
                         logRequests.add(tmpRequest);
+                        countedLogs.increment();
+                        receivedBytes.add(line.getBytes(StandardCharsets.UTF_8).length + 1);
                         logger.debug("got log: {} ", line);
                     });
                     logger.debug("Total number of logRequests {} ({})", logRequests.size(), logRequests);
@@ -99,6 +191,72 @@ public class MockLogzioBulkListener implements Closeable {
         logger.info("Created a mock listener ("+this+")");
     }
 
+    private void waitResponseLatency() {
+        long latencyMillis = responseLatencyMillis.getAsLong();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Integer pickInjectedError() {
+        if (errorProbabilities.isEmpty()) {
+            return null;
+        }
+        double draw = ThreadLocalRandom.current().nextDouble();
+        for (Map.Entry<Integer, Double> errorProbability : errorProbabilities.entrySet()) {
+            draw -= errorProbability.getValue();
+            if (draw < 0) {
+                return errorProbability.getKey();
+            }
+        }
+        return null;
+    }
+
+    private void readHalfOfBody(HttpServletRequest request) throws IOException {
+        long remaining = Math.max(0, request.getContentLengthLong() / 2);
+        InputStream body = request.getInputStream();
+        byte[] buffer = new byte[8192];
+        while (remaining > 0) {
+            int read = body.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Counts the lines of the bulk without decoding them, the sender ends each log with a new line.
+     */
+    private void countLogs(HttpServletRequest request) throws IOException {
+        String contentEncoding = request.getHeader("Content-Encoding");
+        long lines = 0;
+        long bytes = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream body = "gzip".equals(contentEncoding) ? new GZIPInputStream(request.getInputStream()) : request.getInputStream()) {
+            int read;
+            byte last = '\n';
+            while ((read = body.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+                bytes += read;
+                last = buffer[read - 1];
+            }
+            if (last != '\n') {
+                lines++;
+            }
+        }
+        countedLogs.add(lines);
+        receivedBytes.add(bytes);
+    }
+
     private Stream<String> getLogsStream(HttpServletRequest request) throws IOException {
         String contentEncoding = request.getHeader("Content-Encoding");
         if (contentEncoding != null && request.getHeader("Content-Encoding").equals("gzip")) {
@@ -205,18 +363,21 @@ public class MockLogzioBulkListener implements Closeable {
                 throw new IllegalArgumentException("Token not found in query string: "+queryString);
             }
 
-            if (paramToValueMap.containsKey("type")) {
-                type = paramToValueMap.get("type");
-            } else {
-                throw new IllegalArgumentException("Token not found in query string: "+queryString);
-            }
-
             try {
                 jsonObject = new JsonParser().parse(logLine).getAsJsonObject();
             } catch (Exception e) {
                 throw new IllegalArgumentException("Not a valid json received in body of request. logLine = "
                     + logLine, e);
             }
+
+            // Like the listener, a type field on the log line overrides the type of the request
+            if (jsonObject.has("type") && jsonObject.get("type").isJsonPrimitive()) {
+                type = jsonObject.get("type").getAsString();
+            } else if (paramToValueMap.containsKey("type")) {
+                type = paramToValueMap.get("type");
+            } else {
+                throw new IllegalArgumentException("Type not found in query string: "+queryString);
+            }
         }
 
         public String getToken() {
@@ -265,7 +426,91 @@ public class MockLogzioBulkListener implements Closeable {
     }
 
     public int getNumberOfReceivedLogs() {
-        return logRequests.size();
+        return countingOnly ? (int) countedLogs.sum() : logRequests.size();
+    }
+
+    /**
+     * @return what the listener received since it started, or since the last {@link #resetStats()}
+     */
+    public Stats getStats() {
+        Map<Integer, Long> injected = new TreeMap<>();
+        injectedErrors.forEach((status, count) -> injected.put(status, count.sum()));
+        return new Stats(requests.sum(), countedLogs.sum(), receivedBytes.sum(), droppedConnections.sum(), injected,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - statsStartNanos));
+    }
+
+    public void resetStats() {
+        requests.reset();
+        countedLogs.reset();
+        receivedBytes.reset();
+        droppedConnections.reset();
+        injectedErrors.clear();
+        statsStartNanos = System.nanoTime();
+    }
+
+    public static class Stats {
+        private final long requests;
+        private final long logs;
+        private final long bytes;
+        private final long droppedConnections;
+        private final Map<Integer, Long> injectedErrors;
+        private final long elapsedMillis;
+
+        Stats(long requests, long logs, long bytes, long droppedConnections, Map<Integer, Long> injectedErrors, long elapsedMillis) {
+            this.requests = requests;
+            this.logs = logs;
+            this.bytes = bytes;
+            this.droppedConnections = droppedConnections;
+            this.injectedErrors = Collections.unmodifiableMap(injectedErrors);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the logs of the accepted requests
+         */
+        public long getLogs() {
+            return logs;
+        }
+
+        /**
+         * @return the uncompressed bytes of the accepted requests
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getDroppedConnections() {
+            return droppedConnections;
+        }
+
+        /**
+         * @return how many requests got each injected status
+         */
+        public Map<Integer, Long> getInjectedErrors() {
+            return injectedErrors;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getLogsPerSecond() {
+            return elapsedMillis == 0 ? 0 : logs * 1000.0 / elapsedMillis;
+        }
+
+        public double getBytesPerSecond() {
+            return elapsedMillis == 0 ? 0 : bytes * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d logs (%.0f/s), %d bytes (%.0f/s), %d dropped connections, injected errors %s in %d ms",
+                    requests, logs, getLogsPerSecond(), bytes, getBytesPerSecond(), droppedConnections, injectedErrors, elapsedMillis);
+        }
     }
 
     public int getNumberOfReceivedMalformedLogs() {
@@ -0,0 +1,64 @@
+package io.logz.sender;
+
+/**
+ * Tunes the bulk size and the drain interval from the outcome of each bulk, additive increase / multiplicative decrease.
+ * Bulks start at the configured batchMaxBytes, and a slow or failed bulk halves the bulk size and doubles the interval.
+ * While bulks fill up and the listener answers within the latency target, bulks grow back and drains come sooner.
+ * When the queue is empty after a bulk, the interval relaxes back towards drainTimeoutSec.
+ */
+class AdaptiveBatchController {
+    static final int MIN_BATCH_BYTES = 64 * 1024;
+    static final long MIN_DRAIN_INTERVAL_MS = 100;
+    private static final int BATCH_BYTES_STEP = 64 * 1024;
+    private static final long DRAIN_INTERVAL_STEP_MS = 100;
+
+    private final int minBatchBytes;
+    private final int maxBatchBytes;
+    private final long minDrainIntervalMs;
+    private final long maxDrainIntervalMs;
+    private final long latencyTargetMs;
+    private volatile int batchMaxBytes;
+    private volatile long drainIntervalMs;
+
+    AdaptiveBatchController(int maxBatchBytes, long maxDrainIntervalMs, long latencyTargetMs) {
+        this.maxBatchBytes = maxBatchBytes;
+        this.minBatchBytes = Math.min(MIN_BATCH_BYTES, maxBatchBytes);
+        this.maxDrainIntervalMs = maxDrainIntervalMs;
+        this.minDrainIntervalMs = Math.min(MIN_DRAIN_INTERVAL_MS, maxDrainIntervalMs);
+        this.latencyTargetMs = latencyTargetMs;
+        this.batchMaxBytes = maxBatchBytes;
+        this.drainIntervalMs = maxDrainIntervalMs;
+    }
+
+    /**
+     * @param latencyMs how long the bulk took to send, including retries
+     * @param backlog   whether logs were left in the queue after the bulk was taken
+     */
+    synchronized void onBulkSent(long latencyMs, boolean backlog) {
+        if (latencyMs > latencyTargetMs) {
+            backOff();
+        } else if (backlog) {
+            batchMaxBytes = Math.min(maxBatchBytes, batchMaxBytes + BATCH_BYTES_STEP);
+            drainIntervalMs = Math.max(minDrainIntervalMs, drainIntervalMs - DRAIN_INTERVAL_STEP_MS);
+        } else {
+            drainIntervalMs = Math.min(maxDrainIntervalMs, drainIntervalMs + DRAIN_INTERVAL_STEP_MS);
+        }
+    }
+
+    synchronized void onBulkFailed() {
+        backOff();
+    }
+
+    private void backOff() {
+        batchMaxBytes = Math.max(minBatchBytes, batchMaxBytes / 2);
+        drainIntervalMs = Math.min(maxDrainIntervalMs, drainIntervalMs * 2);
+    }
+
+    int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    long getDrainIntervalMs() {
+        return drainIntervalMs;
+    }
+}
@@ -0,0 +1,28 @@
+package io.logz.sender;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Taking the logs of one bulk out of the queue, including compressing them when batchMaxCompressedBytes is set.
+ */
+@Name("io.logz.sender.BulkAssembly")
+@Label("Bulk Assembly")
+@Category({"Logz.io", "Sender"})
+@Description("Logs taken out of the queue into one bulk")
+class BulkAssemblyEvent extends jdk.jfr.Event {
+    @Label("Logs")
+    int logs;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Compressed Bytes")
+    @Description("The size of the compressed bulk, or 0 when the bulk is compressed later or not at all")
+    @DataAmount
+    long compressedBytes;
+}
@@ -0,0 +1,91 @@
+package io.logz.sender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A gzip bulk payload that logs are compressed into as they are dequeued, so the bulk can be closed
+ * once it reaches a target compressed size.
+ * The deflater holds back part of the input until its buffers fill, so the stream is flushed every
+ * {@value #FLUSH_INTERVAL_BYTES} input bytes, and the size of the input since then is estimated from the ratio so far.
+ */
+class CompressedBulk {
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+    // Used until the deflater produced its first output, logs usually compress a lot better than this
+    private static final double INITIAL_COMPRESSION_RATIO = 0.5;
+    private static final int FLUSH_INTERVAL_BYTES = 64 * 1024;
+
+    private final List<FormattedLogMessage> logs = new ArrayList<>();
+    private final ByteArrayOutputStream bytes;
+    private final PooledGzipOutputStream gzip;
+    private final CompressionEvent compression;
+    private int rawSize;
+    private int rawSizeAtLastFlush;
+    private int sizeAtLastFlush;
+
+    CompressedBulk(int expectedCompressedSize, DeflaterPool deflaterPool) {
+        if (JfrEvents.isCompressionEnabled()) {
+            compression = new CompressionEvent();
+            compression.begin();
+        } else {
+            compression = null;
+        }
+        try {
+            bytes = new ByteArrayOutputStream(expectedCompressedSize);
+            gzip = new PooledGzipOutputStream(bytes, deflaterPool, true);
+            // The gzip header is written on creation and says nothing about the ratio
+            sizeAtLastFlush = bytes.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void add(FormattedLogMessage log) {
+        logs.add(log);
+        try {
+            if (log.writeTo(gzip)) {
+                gzip.write(NEW_LINE);
+            }
+            rawSize += log.getSize() + NEW_LINE.length;
+            if (rawSize - rawSizeAtLastFlush >= FLUSH_INTERVAL_BYTES) {
+                gzip.flush();
+                sizeAtLastFlush = bytes.size();
+                rawSizeAtLastFlush = rawSize;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    int estimatedCompressedSize() {
+        double ratio = rawSizeAtLastFlush == 0 ? INITIAL_COMPRESSION_RATIO : (double) sizeAtLastFlush / rawSizeAtLastFlush;
+        return sizeAtLastFlush + (int) ((rawSize - rawSizeAtLastFlush) * ratio);
+    }
+
+    int getRawSize() {
+        return rawSize;
+    }
+
+    List<FormattedLogMessage> getLogs() {
+        return logs;
+    }
+
+    byte[] finish() {
+        try {
+            gzip.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        if (compression != null && compression.shouldCommit()) {
+            compression.logs = logs.size();
+            compression.uncompressedBytes = rawSize;
+            compression.compressedBytes = payload.length;
+            compression.commit();
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,24 @@
+package io.logz.sender;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.logz.sender.Compression")
+@Label("Bulk Compression")
+@Category({"Logz.io", "Sender"})
+@Description("A bulk gzipped into a request body")
+class CompressionEvent extends jdk.jfr.Event {
+    @Label("Logs")
+    int logs;
+
+    @Label("Uncompressed Bytes")
+    @DataAmount
+    long uncompressedBytes;
+
+    @Label("Compressed Bytes")
+    @DataAmount
+    long compressedBytes;
+}
@@ -0,0 +1,183 @@
+package io.logz.sender;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collapses repeats of a log within a time window. The first log with a key is sent as is, the repeats that follow
+ * within the window are only counted, and once the window ends one summary is sent: a copy of the first repeat with
+ * repeat_count, first_timestamp and last_timestamp fields.
+ * Keys are 64 bit hashes of the key fields, kept in a fixed size table of primitive arrays, so a log that is not
+ * a repeat allocates nothing. A key always lives in one bucket of {@value #BUCKET_SIZE} slots, which is searched
+ * whole, so an expired slot can simply be emptied. Each bucket has its own lock, so threads logging different keys
+ * rarely wait for each other. When a key finds no free slot in its bucket, the slot whose window started first
+ * is reused, and its pending summary is sent. Summaries are handed on after the bucket's lock is released, so sending
+ * them never holds up other threads.
+ */
+class Deduplicator {
+    static final String REPEAT_COUNT_FIELD = "repeat_count";
+    static final String FIRST_TIMESTAMP_FIELD = "first_timestamp";
+    static final String LAST_TIMESTAMP_FIELD = "last_timestamp";
+    private static final int BUCKET_SIZE = 8;
+    private static final long EMPTY = 0;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String[] keyFields;
+    private final long windowMs;
+    private final int bucketMask;
+    private final Object[] locks;
+    private final long[] keys;
+    private final long[] windowStarts;
+    private final int[] repeats;
+    private final long[] firstRepeats;
+    private final long[] lastRepeats;
+    private final JsonObject[] samples;
+    private final Consumer<JsonObject> sampleContext;
+
+    Deduplicator(String[] keyFields, long windowMs, int tableSize) {
+        this(keyFields, windowMs, tableSize, null);
+    }
+
+    /**
+     * @param sampleContext adds context, such as the trace of the current span, to the copy of the first repeat
+     *                      on the thread that logged it, as the summary is sent later from another thread
+     */
+    Deduplicator(String[] keyFields, long windowMs, int tableSize, Consumer<JsonObject> sampleContext) {
+        int capacity = Integer.highestOneBit(Math.max(BUCKET_SIZE, tableSize - 1)) << 1;
+        this.keyFields = keyFields;
+        this.windowMs = windowMs;
+        this.bucketMask = capacity / BUCKET_SIZE - 1;
+        this.locks = new Object[capacity / BUCKET_SIZE];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.keys = new long[capacity];
+        this.windowStarts = new long[capacity];
+        this.repeats = new int[capacity];
+        this.firstRepeats = new long[capacity];
+        this.lastRepeats = new long[capacity];
+        this.samples = new JsonObject[capacity];
+        this.sampleContext = sampleContext;
+    }
+
+    /**
+     * @param summaries receives the summaries of windows that ended, or of keys that were evicted
+     * @return true if the log should be sent, false if it was counted as a repeat
+     */
+    boolean offer(JsonObject jsonMessage, long now, Consumer<JsonObject> summaries) {
+        long key = hash(jsonMessage);
+        int bucket = (int) (key ^ (key >>> 32)) & bucketMask;
+        int first = bucket * BUCKET_SIZE;
+        JsonObject summary;
+        synchronized (locks[bucket]) {
+            int slot = first;
+            int empty = -1;
+            int oldest = -1;
+            while (slot < first + BUCKET_SIZE && keys[slot] != key) {
+                if (keys[slot] == EMPTY) {
+                    if (empty < 0) {
+                        empty = slot;
+                    }
+                } else if (oldest < 0 || windowStarts[slot] < windowStarts[oldest]) {
+                    oldest = slot;
+                }
+                slot++;
+            }
+            if (slot < first + BUCKET_SIZE && now - windowStarts[slot] < windowMs) {
+                countRepeat(slot, jsonMessage, now);
+                return false;
+            }
+            if (slot == first + BUCKET_SIZE) {
+                slot = empty >= 0 ? empty : oldest;
+                keys[slot] = key;
+            }
+            summary = takeSummary(slot);
+            windowStarts[slot] = now;
+        }
+        if (summary != null) {
+            summaries.accept(summary);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the summaries of the windows that ended by now, so repeats are reported even when the log stopped coming.
+     */
+    void expire(long now, Consumer<JsonObject> summaries) {
+        List<JsonObject> expired = new ArrayList<>();
+        for (int bucket = 0; bucket <= bucketMask; bucket++) {
+            synchronized (locks[bucket]) {
+                for (int slot = bucket * BUCKET_SIZE; slot < (bucket + 1) * BUCKET_SIZE; slot++) {
+                    if (keys[slot] != EMPTY && now - windowStarts[slot] >= windowMs) {
+                        JsonObject summary = takeSummary(slot);
+                        if (summary != null) {
+                            expired.add(summary);
+                        }
+                        keys[slot] = EMPTY;
+                    }
+                }
+            }
+            if (!expired.isEmpty()) {
+                expired.forEach(summaries);
+                expired.clear();
+            }
+        }
+    }
+
+    void expireAll(Consumer<JsonObject> summaries) {
+        expire(Long.MAX_VALUE, summaries);
+    }
+
+    private void countRepeat(int slot, JsonObject jsonMessage, long now) {
+        if (repeats[slot] == 0) {
+            // The only allocation, once per window of a repeating key
+            samples[slot] = jsonMessage.deepCopy();
+            if (sampleContext != null) {
+                sampleContext.accept(samples[slot]);
+            }
+            firstRepeats[slot] = now;
+        }
+        repeats[slot]++;
+        lastRepeats[slot] = now;
+    }
+
+    /**
+     * @return the summary of the slot's window, or null if the key wasn't repeated in it
+     */
+    private JsonObject takeSummary(int slot) {
+        if (repeats[slot] == 0) {
+            return null;
+        }
+        JsonObject summary = samples[slot];
+        summary.addProperty(REPEAT_COUNT_FIELD, repeats[slot]);
+        summary.addProperty(FIRST_TIMESTAMP_FIELD, Instant.ofEpochMilli(firstRepeats[slot]).toString());
+        summary.addProperty(LAST_TIMESTAMP_FIELD, Instant.ofEpochMilli(lastRepeats[slot]).toString());
+        samples[slot] = null;
+        repeats[slot] = 0;
+        return summary;
+    }
+
+    private long hash(JsonObject jsonMessage) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String keyField : keyFields) {
+            JsonElement value = jsonMessage.get(keyField);
+            if (value == null || value.isJsonNull()) {
+                hash = (hash ^ 0xff) * FNV_PRIME;
+                continue;
+            }
+            String text = value.isJsonPrimitive() ? value.getAsString() : value.toString();
+            for (int i = 0; i < text.length(); i++) {
+                hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+            }
+            // Separates the fields, so "ab","c" and "a","bc" don't collide
+            hash = (hash ^ 0xfffe) * FNV_PRIME;
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+}
@@ -0,0 +1,38 @@
+package io.logz.sender;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Reuses deflaters between bulks, instead of allocating native compression state for every request.
+ */
+class DeflaterPool {
+    private final ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final int maxIdle;
+
+    DeflaterPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    Deflater acquire() {
+        Deflater deflater = idle.poll();
+        if (deflater == null) {
+            // Raw deflate, the gzip header and trailer are written by PooledGzipOutputStream
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        idleCount.decrementAndGet();
+        return deflater;
+    }
+
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.add(deflater);
+        } else {
+            idleCount.decrementAndGet();
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package io.logz.sender;
+
+/**
+ * What happened to a log that was sent with {@link LogzioSender#sendWithAck}.
+ */
+public enum DeliveryResult {
+    /** The listener accepted the bulk that contained the log. */
+    DELIVERED,
+    /** The log was written to the disk queue, which keeps sending it across restarts, so its delivery is not tracked further. */
+    PERSISTED,
+    /** The log was over the size limit and exceedMaxSizeAction is drop, or nothing was left of the message after cutting it. */
+    DROPPED_OVERSIZED,
+    /** The queue was full. */
+    DROPPED_QUEUE_FULL,
+    /** The log was dropped by its level's sampling rate or by the rate limit. */
+    DROPPED_SAMPLED,
+    /** The log repeated a recent log, and is counted in that log's summary instead. */
+    DROPPED_DEDUPLICATED,
+    /** The listener rejected the bulk that contained the log, for example for a bad token or malformed logs. */
+    REJECTED,
+    /** The sender was interrupted while sending the bulk, or could not return it to the queue after it failed. */
+    UNDELIVERED
+}
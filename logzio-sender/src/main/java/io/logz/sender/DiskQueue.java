@@ -5,23 +5,36 @@ import io.logz.sender.exceptions.LogzioParameterErrorException;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps logs in a BigQueue on disk. With storeEnqueueTime, each record is framed by a magic 0x00 byte, a version byte
+ * and the 8 byte time the log was enqueued, followed by the log. Logs are JSON objects and never start with 0x00,
+ * so records without framing are still read, with an unknown enqueue time. Versions that don't know the framing
+ * can't read framed records, so it is off by default.
+ */
 public class DiskQueue implements LogsQueue {
+    private static final byte RECORD_MAGIC = 0x00;
+    private static final byte RECORD_VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 10;
     private final BigQueueImpl logsQueue;
     private final File queueDirectory;
     private final boolean dontCheckEnoughDiskSpace;
     private final int fsPercentThreshold;
     private final SenderStatusReporter reporter;
+    private final boolean storeEnqueueTime;
     private volatile boolean isEnoughSpace;
 
     private DiskQueue(File queueDir, boolean dontCheckEnoughDiskSpace, int fsPercentThreshold,
                       int gcPersistedQueueFilesIntervalSeconds, SenderStatusReporter reporter,
-                      int checkDiskSpaceInterval, ScheduledExecutorService diskSpaceTasks)
+                      int checkDiskSpaceInterval, ScheduledExecutorService diskSpaceTasks, boolean storeEnqueueTime)
             throws LogzioParameterErrorException, IOException {
 
         this.reporter = reporter;
+        this.storeEnqueueTime = storeEnqueueTime;
         queueDirectory = queueDir;
         validateParameters();
         // divide bufferDir to dir and queue name
@@ -49,25 +62,91 @@ public class DiskQueue implements LogsQueue {
 
     @Override
     public void enqueue(byte[] log) {
+        offer(log, System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean offer(FormattedLogMessage log) {
+        long enqueueTime = log.getEnqueueTimeMillis();
+        return offer(log.getMessage(), enqueueTime > 0 ? enqueueTime : System.currentTimeMillis());
+    }
+
+    private boolean offer(byte[] log, long enqueueTimeMillis) {
         if (isEnoughSpace) {
             try {
-                logsQueue.enqueue(log);
+                logsQueue.enqueue(storeEnqueueTime ? frame(log, enqueueTimeMillis) : log);
+                return true;
             } catch (IOException e) {
                 reporter.error("Encountered an error while enqueue", e);
             }
         }
+        return false;
+    }
+
+    @Override
+    public long getQueuedLogs() {
+        return logsQueue.size();
+    }
+
+    @Override
+    public long remainingCapacity(int averageLogSize) {
+        return isEnoughSpace ? Long.MAX_VALUE : 0;
     }
 
     @Override
     public byte[] dequeue() {
-        byte[] logs = null;
+        byte[] record = dequeueRecord();
+        return record == null || !isFramed(record) ? record : Arrays.copyOfRange(record, RECORD_HEADER_SIZE, record.length);
+    }
+
+    @Override
+    public FormattedLogMessage dequeueMessage() {
+        byte[] record = dequeueRecord();
+        if (record == null) {
+            return null;
+        }
+        if (!isFramed(record)) {
+            return new FormattedLogMessage(record);
+        }
+        return new FormattedLogMessage(Arrays.copyOfRange(record, RECORD_HEADER_SIZE, record.length), enqueueTimeOf(record));
+    }
+
+    @Override
+    public long getOldestEnqueueTimeMillis() {
         try {
-            logs = logsQueue.dequeue();
+            byte[] oldest = logsQueue.peek();
+            return oldest != null && isFramed(oldest) ? enqueueTimeOf(oldest) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private byte[] dequeueRecord() {
+        byte[] record = null;
+        try {
+            record = logsQueue.dequeue();
         } catch (IOException e) {
             reporter.error("Encountered an error while dequeue", e);
         }
 
-        return logs;
+        return record;
+    }
+
+    static byte[] frame(byte[] log, long enqueueTimeMillis) {
+        byte[] record = new byte[RECORD_HEADER_SIZE + log.length];
+        record[0] = RECORD_MAGIC;
+        record[1] = RECORD_VERSION;
+        ByteBuffer.wrap(record, 2, 8).putLong(enqueueTimeMillis);
+        System.arraycopy(log, 0, record, RECORD_HEADER_SIZE, log.length);
+        return record;
+    }
+
+    static boolean isFramed(byte[] record) {
+        return record.length >= RECORD_HEADER_SIZE && record[0] == RECORD_MAGIC && record[1] == RECORD_VERSION;
+    }
+
+    private static long enqueueTimeOf(byte[] record) {
+        return ByteBuffer.wrap(record, 2, 8).getLong();
     }
 
     @Override
@@ -96,8 +175,17 @@ public class DiskQueue implements LogsQueue {
     }
 
     private void gcBigQueue() {
+        DiskQueueGcEvent event = null;
+        if (JfrEvents.isDiskQueueGcEnabled()) {
+            event = new DiskQueueGcEvent();
+            event.begin();
+        }
         try {
             logsQueue.gc();
+            if (event != null && event.shouldCommit()) {
+                event.queueDirectory = queueDirectory.getAbsolutePath();
+                event.commit();
+            }
         } catch (Throwable e) {
             // We cant throw anything out, or the task will stop, so just swallow all
             reporter.error("Uncaught error from BigQueue.gc()", e);
@@ -119,6 +207,7 @@ public class DiskQueue implements LogsQueue {
         private int gcPersistedQueueFilesIntervalSeconds = 30;
         private int checkDiskSpaceInterval = 1000;
         private File queueDir;
+        private boolean storeEnqueueTime = false;
         private SenderStatusReporter reporter;
         private ScheduledExecutorService diskSpaceTasks;
         private LogzioSender.Builder context;
@@ -151,6 +240,17 @@ public class DiskQueue implements LogsQueue {
             return this;
         }
 
+        /**
+         * @param storeEnqueueTime frame each record with the time it was enqueued, so the log latency and backlog age
+         *                         metrics cover the disk queue too. Versions older than the framing send framed
+         *                         records as they are, so don't downgrade a sender that used it on the same queue
+         *                         directory until the queue was drained.
+         */
+        public Builder setStoreEnqueueTime(boolean storeEnqueueTime) {
+            this.storeEnqueueTime = storeEnqueueTime;
+            return this;
+        }
+
         Builder setReporter(SenderStatusReporter reporter) {
             this.reporter = reporter;
             return this;
@@ -168,7 +268,7 @@ public class DiskQueue implements LogsQueue {
 
         DiskQueue build() throws LogzioParameterErrorException, IOException {
             return new DiskQueue(queueDir, dontCheckEnoughDiskSpace, fsPercentThreshold,
-                    gcPersistedQueueFilesIntervalSeconds, reporter, checkDiskSpaceInterval, diskSpaceTasks);
+                    gcPersistedQueueFilesIntervalSeconds, reporter, checkDiskSpaceInterval, diskSpaceTasks, storeEnqueueTime);
         }
     }
 
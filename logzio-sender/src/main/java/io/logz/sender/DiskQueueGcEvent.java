@@ -0,0 +1,15 @@
+package io.logz.sender;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.logz.sender.DiskQueueGc")
+@Label("Disk Queue GC")
+@Category({"Logz.io", "Sender"})
+@Description("The disk queue deleting the files of logs that were already sent")
+class DiskQueueGcEvent extends jdk.jfr.Event {
+    @Label("Queue Directory")
+    String queueDirectory;
+}
@@ -0,0 +1,17 @@
+package io.logz.sender;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("io.logz.sender.Drop")
+@Label("Log Dropped")
+@Category({"Logz.io", "Sender"})
+@Description("A log the sender dropped before sending it")
+@StackTrace(false)
+class DropEvent extends jdk.jfr.Event {
+    @Label("Reason")
+    String reason;
+}
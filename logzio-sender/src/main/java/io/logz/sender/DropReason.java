@@ -0,0 +1,19 @@
+package io.logz.sender;
+
+/**
+ * Why the sender dropped a log before sending it, as counted by {@link SenderMetrics}.
+ */
+public enum DropReason {
+    /** The queue was full. */
+    QUEUE_FULL,
+    /** The log was over the size limit and exceedMaxSizeAction is drop, or nothing was left of the message after cutting it. */
+    OVERSIZED,
+    /** A byte[] log that is not a valid JSON object. */
+    INVALID,
+    /** The log's level is sampled, and the log was not picked. */
+    SAMPLED,
+    /** The rate limit of the log's key was reached. */
+    RATE_LIMITED,
+    /** The log repeated a recent one, and is counted in the summary of its window. */
+    DEDUPLICATED
+}
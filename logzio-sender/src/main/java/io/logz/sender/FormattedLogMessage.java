@@ -1,13 +1,22 @@
 package io.logz.sender;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 public class FormattedLogMessage {
 
     private byte[] message;
+    private long enqueueTimeMillis;
 
     public FormattedLogMessage(byte[] message) {
         this.message = message;
     }
 
+    FormattedLogMessage(byte[] message, long enqueueTimeMillis) {
+        this.message = message;
+        this.enqueueTimeMillis = enqueueTimeMillis;
+    }
+
     public byte[] getMessage() {
         return message;
     }
@@ -15,4 +24,37 @@ public class FormattedLogMessage {
     public int getSize() {
         return message.length;
     }
+
+    /**
+     * @return when the log was first added to a queue, in epoch milliseconds, or 0 if it never was
+     */
+    public long getEnqueueTimeMillis() {
+        return enqueueTimeMillis;
+    }
+
+    /**
+     * Keeps the time of the first enqueue, so a log returned to the queue after a failed bulk keeps its age.
+     */
+    void stampEnqueueTime(long now) {
+        if (enqueueTimeMillis == 0) {
+            enqueueTimeMillis = now;
+        }
+    }
+
+    /**
+     * Writes the log to a bulk payload.
+     *
+     * @return false if the log turned out to be empty and nothing was written
+     */
+    boolean writeTo(OutputStream os) throws IOException {
+        os.write(message);
+        return true;
+    }
+
+    /**
+     * @return true if the log was found to be empty or oversized when written to a bulk, so nothing was sent for it
+     */
+    boolean isDroppedOnDrain() {
+        return false;
+    }
 }
@@ -0,0 +1,27 @@
+package io.logz.sender;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One request to the listener, from opening the connection to reading its response.
+ */
+@Name("io.logz.sender.HttpSend")
+@Label("HTTP Send")
+@Category({"Logz.io", "Sender"})
+@Description("A request that sent a bulk to the listener")
+class HttpSendEvent extends jdk.jfr.Event {
+    @Label("Payload Bytes")
+    @DataAmount
+    long payloadBytes;
+
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Response Code")
+    @Description("The HTTP status of the response, or 0 if the request failed without one")
+    int responseCode;
+}
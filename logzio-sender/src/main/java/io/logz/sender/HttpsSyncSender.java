@@ -12,34 +12,62 @@ import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Properties;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.Semaphore;
 
 public class HttpsSyncSender {
     private final HttpsRequestConfiguration configuration;
     private final SenderStatusReporter reporter;
+    private final Semaphore connectionPermits;
+    private final DeflaterPool deflaterPool;
+    private final SenderMetrics metrics;
+    private final SenderTelemetry telemetry;
+    private final StatusEvents statusEvents;
     private static final byte[] NEW_LINE_AS_UTF8_BYTE_ARRAY = "\n".getBytes(StandardCharsets.UTF_8);
     private static final int NEW_LINE_AS_UTF8_BYTE_ARRAY_SIZE = NEW_LINE_AS_UTF8_BYTE_ARRAY.length;
 
 
-    HttpsSyncSender(HttpsRequestConfiguration configuration, SenderStatusReporter reporter) {
+    /**
+     * @param connectionPermits limits concurrent requests across the senders of a registry, or null for no limit
+     * @param telemetry         reports each request to OpenTelemetry, or null when no OpenTelemetry instance is set
+     */
+    HttpsSyncSender(HttpsRequestConfiguration configuration, SenderStatusReporter reporter,
+                    Semaphore connectionPermits, DeflaterPool deflaterPool, SenderMetrics metrics, SenderTelemetry telemetry) {
         this.configuration = configuration;
         this.reporter = reporter;
+        this.connectionPermits = connectionPermits;
+        this.deflaterPool = deflaterPool;
+        this.metrics = metrics;
+        this.telemetry = telemetry;
+        this.statusEvents = new StatusEvents(reporter);
     }
 
     public HttpsRequestConfiguration getConfiguration() {
         return configuration;
     }
 
-    private byte[] toNewLineSeparatedByteArray(List<FormattedLogMessage> messages) {
+    byte[] toNewLineSeparatedByteArray(List<FormattedLogMessage> messages) {
+        CompressionEvent compression = null;
+        if (configuration.isCompressRequests() && JfrEvents.isCompressionEnabled()) {
+            compression = new CompressionEvent();
+            compression.begin();
+        }
         try (ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream(sizeInBytes(messages) + NEW_LINE_AS_UTF8_BYTE_ARRAY_SIZE * messages.size());
-             OutputStream os = configuration.isCompressRequests() ? new GZIPOutputStream(byteOutputStream) : byteOutputStream) {
+             OutputStream os = configuration.isCompressRequests() ? new PooledGzipOutputStream(byteOutputStream, deflaterPool, false) : byteOutputStream) {
             for (FormattedLogMessage currMessage : messages) {
-                os.write(currMessage.getMessage());
-                os.write(NEW_LINE_AS_UTF8_BYTE_ARRAY);
+                if (currMessage.writeTo(os)) {
+                    os.write(NEW_LINE_AS_UTF8_BYTE_ARRAY);
+                }
             }
             // Need close before return for gzip compression, The stream only knows to compress and write the last bytes when you tell it to close
             os.close();
-            return byteOutputStream.toByteArray();
+            byte[] payload = byteOutputStream.toByteArray();
+            if (compression != null && compression.shouldCommit()) {
+                compression.logs = messages.size();
+                compression.uncompressedBytes = sizeInBytes(messages) + (long) NEW_LINE_AS_UTF8_BYTE_ARRAY_SIZE * messages.size();
+                compression.compressedBytes = payload.length;
+                compression.commit();
+            }
+            return payload;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -52,25 +80,61 @@ public class HttpsSyncSender {
         return totalSize;
     }
 
-    void sendToLogzio(List<FormattedLogMessage> messages) throws LogzioServerErrorException {
+    int sendToLogzio(List<FormattedLogMessage> messages) throws LogzioServerErrorException {
+        return sendToLogzio(toNewLineSeparatedByteArray(messages));
+    }
+
+    /**
+     * Sends a bulk that was already encoded, and compressed if compressRequests is set.
+     *
+     * @return the HTTP status the listener answered the bulk with, or 0 if interrupted before an answer
+     */
+    int sendToLogzio(byte[] payload) throws LogzioServerErrorException {
+        int responseCode = 0;
         try {
-            byte[] payload = toNewLineSeparatedByteArray(messages);
             int currentRetrySleep = configuration.getInitialWaitBeforeRetryMS();
 
             for (int currTry = 1; currTry <= configuration.getMaxRetriesAttempts(); currTry++) {
                 boolean retry = true;
-                int responseCode = 0;
+                responseCode = 0;
                 String responseMessage = "";
                 IOException savedException = null;
 
+                if (connectionPermits != null) {
+                    connectionPermits.acquire();
+                }
+                long requestStart = System.nanoTime();
+                HttpSendEvent sendEvent = null;
+                if (JfrEvents.isHttpSendEnabled()) {
+                    sendEvent = new HttpSendEvent();
+                    sendEvent.begin();
+                }
                 try {
                     HttpURLConnection conn = sendRequest(payload);
                     responseCode = conn.getResponseCode();
                     responseMessage = conn.getResponseMessage();
                     retry = handleResponse(payload, responseCode, responseMessage, conn);
+                    if (responseCode != HttpURLConnection.HTTP_BAD_REQUEST) {
+                        discardResponse(conn, responseCode);
+                    }
                 } catch (IOException e) {
                     savedException = e;
                     reporter.error("Got IO exception - " + e.getMessage());
+                } finally {
+                    if (connectionPermits != null) {
+                        connectionPermits.release();
+                    }
+                    if (sendEvent != null && sendEvent.shouldCommit()) {
+                        sendEvent.payloadBytes = payload.length;
+                        sendEvent.attempt = currTry;
+                        sendEvent.responseCode = responseCode;
+                        sendEvent.commit();
+                    }
+                    long requestNanos = System.nanoTime() - requestStart;
+                    metrics.onRequest(payload.length, requestNanos, responseCode == HttpURLConnection.HTTP_OK);
+                    if (telemetry != null) {
+                        telemetry.onRequest(requestNanos, responseCode);
+                    }
                 }
 
                 if (retry) {
@@ -82,7 +146,20 @@ public class HttpsSyncSender {
         } catch (InterruptedException e) {
             reporter.info("Got interrupted exception");
             Thread.currentThread().interrupt();
+            return 0;
         }
+        return responseCode;
+    }
+
+    /**
+     * Reports the bulks sent since the last report.
+     */
+    void reportStatus() {
+        statusEvents.report();
+    }
+
+    void reportDueStatus() {
+        statusEvents.reportDue();
     }
 
     private int handleRetry(int currentRetrySleep, int currTry, int responseCode, String responseMessage, IOException savedException) throws LogzioServerErrorException, InterruptedException {
@@ -94,9 +171,20 @@ public class HttpsSyncSender {
             throw new LogzioServerErrorException("Got HTTP " + responseCode + " code from logz.io, with message: " + responseMessage);
         }
 
+        metrics.onRetry();
         reporter.warning("Could not send log to logz.io, retry (" + currTry + "/" + configuration.getMaxRetriesAttempts() + ")");
         reporter.warning("Sleeping for " + currentRetrySleep + " ms and will try again.");
+        RetryEvent retryEvent = null;
+        if (JfrEvents.isRetryEnabled()) {
+            retryEvent = new RetryEvent();
+            retryEvent.begin();
+        }
         Thread.sleep(currentRetrySleep);
+        if (retryEvent != null && retryEvent.shouldCommit()) {
+            retryEvent.attempt = currTry;
+            retryEvent.responseCode = responseCode;
+            retryEvent.commit();
+        }
         return currentRetrySleep * 2;
     }
 
@@ -110,13 +198,25 @@ public class HttpsSyncSender {
         } else if (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
             reporter.error("Logz.io: Got forbidden! Your token is not right. Unfortunately, dropping logs. Message: " + responseMessage);
         } else if (responseCode == HttpURLConnection.HTTP_OK) {
-            reporter.info("Successfully sent bulk to logz.io, size: " + payload.length);
+            statusEvents.record(StatusEvent.BULK_SENT, payload.length);
         } else {
             retry = true;
         }
         return retry;
     }
 
+    /**
+     * Reads the rest of the response, so the connection goes back to the keep-alive cache instead of being closed.
+     */
+    private void discardResponse(HttpURLConnection conn, int responseCode) {
+        try (InputStream response = responseCode < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream()) {
+            if (response != null) {
+                response.transferTo(OutputStream.nullOutputStream());
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
     private String readErrorStream(HttpURLConnection conn) {
         BufferedReader bufferedReader = null;
         try {
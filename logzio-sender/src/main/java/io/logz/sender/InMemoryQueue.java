@@ -7,23 +7,25 @@ import java.util.concurrent.locks.ReentrantLock;
 public class InMemoryQueue implements LogsQueue {
     private static final int MB_IN_BYTES = 1024 * 1024;
     public static int DONT_LIMIT_QUEUE_SPACE = -1;
-    private final ConcurrentLinkedQueue<byte[]> logsBuffer;
+    private final ConcurrentLinkedQueue<FormattedLogMessage> logsBuffer;
     private final boolean dontCheckEnoughMemorySpace;
     private final boolean dontCheckLogsCountLimit;
     private final long capacityInBytes;
     private final long logsCountLimit;
-    private final SenderStatusReporter reporter;
+    private final StatusEvents statusEvents;
+    private final boolean serializeOnDrain;
     private volatile long size;
     private volatile long logsCounter;
     private final ReentrantLock queueLock;
 
-    private InMemoryQueue(long capacityInBytes, long logsCountLimit, SenderStatusReporter reporter) {
+    private InMemoryQueue(long capacityInBytes, long logsCountLimit, SenderStatusReporter reporter, boolean serializeOnDrain) {
         logsBuffer = new ConcurrentLinkedQueue<>();
         this.dontCheckEnoughMemorySpace = capacityInBytes == DONT_LIMIT_QUEUE_SPACE;
         this.dontCheckLogsCountLimit = logsCountLimit == DONT_LIMIT_QUEUE_SPACE;
         this.capacityInBytes = capacityInBytes;
         this.logsCountLimit = logsCountLimit;
-        this.reporter = reporter;
+        this.statusEvents = new StatusEvents(reporter);
+        this.serializeOnDrain = serializeOnDrain;
         this.size = 0;
         this.logsCounter = 0;
         this.queueLock = new ReentrantLock();
@@ -31,27 +33,51 @@ public class InMemoryQueue implements LogsQueue {
 
     @Override
     public void enqueue(byte[] log) {
+        enqueue(new FormattedLogMessage(log));
+    }
+
+    /**
+     * Keeps the log as is, so a log that is serialized on drain is only counted by its estimated size.
+     */
+    @Override
+    public void enqueue(FormattedLogMessage log) {
+        offer(log);
+    }
+
+    @Override
+    public boolean offer(FormattedLogMessage log) {
+        log.stampEnqueueTime(System.currentTimeMillis());
         queueLock.lock();
         try {
             if (isEnoughSpace()) {
                 logsBuffer.add(log);
-                size += log.length;
+                size += log.getSize();
                 logsCounter += 1;
-                return;
+                return true;
             }
         } finally {
             queueLock.unlock();
         }
+        return false;
     }
 
     @Override
     public byte[] dequeue() {
+        FormattedLogMessage log = dequeueMessage();
+        return log == null ? null : log.getMessage();
+    }
+
+    @Override
+    public FormattedLogMessage dequeueMessage() {
         queueLock.lock();
-        byte[] log;
+        FormattedLogMessage log;
         try {
-            log = logsBuffer.remove();
-            size -= log.length;
-            logsCounter -= 1;
+            // Another drain may have taken the last log since isEmpty() was checked
+            log = logsBuffer.poll();
+            if (log != null) {
+                size -= log.getSize();
+                logsCounter -= 1;
+            }
         } finally {
             queueLock.unlock();
         }
@@ -65,24 +91,72 @@ public class InMemoryQueue implements LogsQueue {
 
     @Override
     public void clear() {
-        logsBuffer.clear();
+        queueLock.lock();
+        try {
+            logsBuffer.clear();
+            size = 0;
+            logsCounter = 0;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public long remainingCapacity(int averageLogSize) {
+        long remaining = Long.MAX_VALUE;
+        if (!dontCheckEnoughMemorySpace) {
+            remaining = Math.max(0, capacityInBytes - size) / Math.max(1, averageLogSize);
+        }
+        if (!dontCheckLogsCountLimit) {
+            remaining = Math.min(remaining, Math.max(0, logsCountLimit - logsCounter));
+        }
+        return remaining;
+    }
+
+    @Override
+    public long getQueuedLogs() {
+        return logsCounter;
+    }
+
+    @Override
+    public long getQueuedBytes() {
+        return size;
+    }
+
+    @Override
+    public long getOldestEnqueueTimeMillis() {
+        FormattedLogMessage oldest = logsBuffer.peek();
+        return oldest == null ? 0 : oldest.getEnqueueTimeMillis();
     }
 
     private boolean isEnoughSpace() {
         if (!dontCheckEnoughMemorySpace && size >= capacityInBytes) {
-            reporter.warning(String.format("Logz.io: Dropping logs - we crossed the memory threshold of %d MB",
-                    capacityInBytes/(MB_IN_BYTES)));
+            statusEvents.record(StatusEvent.QUEUE_MEMORY_THRESHOLD, capacityInBytes / MB_IN_BYTES);
             return false;
         }
 
         if (!dontCheckLogsCountLimit && logsCounter >= logsCountLimit) {
-            reporter.warning(String.format("Logz.io: Dropping logs - we crossed the logs counter threshold of %d logs",
-                    logsCountLimit));
+            statusEvents.record(StatusEvent.QUEUE_COUNT_THRESHOLD, logsCountLimit);
             return false;
         }
         return true;
     }
 
+    boolean isSerializeOnDrain() {
+        return serializeOnDrain;
+    }
+
+    /**
+     * Reports the drops counted since the last report.
+     */
+    void reportStatus() {
+        statusEvents.report();
+    }
+
+    void reportDueStatus() {
+        statusEvents.reportDue();
+    }
+
     @Override
     public void close() throws IOException {
     }
@@ -90,6 +164,7 @@ public class InMemoryQueue implements LogsQueue {
     public static class Builder {
         private long inMemoryQueueCapacityInBytes = MB_IN_BYTES * 100; //100MB memory limit
         private long logsCountLimit = DONT_LIMIT_QUEUE_SPACE;
+        private boolean serializeOnDrain = false;
         private SenderStatusReporter reporter;
         private LogzioSender.Builder context;
 
@@ -107,6 +182,18 @@ public class InMemoryQueue implements LogsQueue {
             return this;
         }
 
+        /**
+         * @param serializeOnDrain keep each JsonObject in the queue as is and serialize it
+         *                         into the bulk payload when draining, instead of on the sending thread.
+         *                         The sender keeps a shallow copy of it, so it may be reused after it was sent.
+         *                         Size limits are then enforced on drain, and the queue capacity is accounted
+         *                         by an estimated size.
+         */
+        public Builder setSerializeOnDrain(boolean serializeOnDrain) {
+            this.serializeOnDrain = serializeOnDrain;
+            return this;
+        }
+
         Builder setReporter(SenderStatusReporter reporter) {
             this.reporter = reporter;
             return this;
@@ -118,7 +205,7 @@ public class InMemoryQueue implements LogsQueue {
         }
 
         public InMemoryQueue build() {
-            return new InMemoryQueue(inMemoryQueueCapacityInBytes, logsCountLimit, reporter);
+            return new InMemoryQueue(inMemoryQueueCapacityInBytes, logsCountLimit, reporter, serializeOnDrain);
         }
     }
 
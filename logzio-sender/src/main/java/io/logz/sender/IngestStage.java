@@ -0,0 +1,211 @@
+package io.logz.sender;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Hands logs from application threads to sender owned worker threads, which serialize, validate and enqueue them.
+ * The handoff is a bounded lock-free ring, so offering a log never blocks; when the ring is full the caller
+ * is expected to process the log itself.
+ */
+class IngestStage {
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicReferenceArray<Object> items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicInteger offering = new AtomicInteger();
+    private final int threadCount;
+    private final Consumer<Object> processor;
+    private final SenderStatusReporter reporter;
+    private volatile Worker[] workers = new Worker[0];
+    private volatile boolean running;
+
+    IngestStage(int threadCount, int bufferSize, Consumer<Object> processor, SenderStatusReporter reporter) {
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.items = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.threadCount = threadCount;
+        this.processor = processor;
+        this.reporter = reporter;
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Worker[] newWorkers = new Worker[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            newWorkers[i] = new Worker("logzio-sender-ingest-" + (i + 1));
+        }
+        workers = newWorkers;
+        for (Worker worker : newWorkers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the workers after they processed everything that was already handed off,
+     * and processes whatever is left on the calling thread once the timeout expires.
+     */
+    synchronized void stop(long timeoutMillis) throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        // An offer that saw the stage running may still be publishing its log, wait for it so the log isn't stranded
+        while (offering.get() > 0) {
+            Thread.onSpinWait();
+        }
+        processRemaining();
+    }
+
+    boolean offer(Object log) {
+        // Counted before checking running, so stop() either sees this offer in flight or this offer sees it stopped
+        offering.incrementAndGet();
+        try {
+            return running && publish(log);
+        } finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    private boolean publish(Object log) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, log);
+                    sequences.set(index, position + 1);
+                    wakeUpIdleWorker();
+                    return true;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * @return how many logs were handed off since the stage was created
+     */
+    long getOfferedCount() {
+        return tail.get();
+    }
+
+    /**
+     * @return how many handed off logs were processed since the stage was created
+     */
+    long getProcessedCount() {
+        return processed.get();
+    }
+
+    private Object poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long available = sequences.get(index) - (position + 1);
+            if (available == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    Object log = items.get(index);
+                    items.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return log;
+                }
+                position = head.get();
+            } else if (available < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    private void processRemaining() {
+        Object log;
+        while ((log = poll()) != null) {
+            process(log);
+        }
+    }
+
+    private void process(Object log) {
+        try {
+            processor.accept(log);
+        } catch (Exception e) {
+            // A bad log must not kill the worker
+            reporter.error("Uncaught error from Logz.io ingest worker", e);
+        } finally {
+            processed.incrementAndGet();
+        }
+    }
+
+    private void wakeUpIdleWorker() {
+        for (Worker worker : workers) {
+            if (worker.parked) {
+                LockSupport.unpark(worker);
+                return;
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        private volatile boolean parked;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idleSpins = 0;
+            while (true) {
+                Object log = poll();
+                if (log != null) {
+                    process(log);
+                    idleSpins = 0;
+                } else if (!running) {
+                    return;
+                } else if (idleSpins < SPINS_BEFORE_PARK) {
+                    idleSpins++;
+                    Thread.onSpinWait();
+                } else {
+                    parked = true;
+                    // Check again after publishing the flag, so a log offered meanwhile is not left waiting
+                    if (isEmpty() && running) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    parked = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.logz.sender;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Registers the sender's events once, and tells whether a recording enabled them, so an event is only allocated
+ * when it will be recorded. On runtimes without the jdk.jfr module every event reports disabled.
+ */
+final class JfrEvents {
+    private static final boolean AVAILABLE = registerTypes();
+
+    private JfrEvents() {
+    }
+
+    /**
+     * Registers the events, if not done yet. Called when a sender is created, so it isn't done while logging.
+     */
+    static void register() {
+        // Registering is done by initializing this class
+    }
+
+    static boolean isDropEnabled() {
+        return AVAILABLE && Types.DROP.isEnabled();
+    }
+
+    static boolean isBulkAssemblyEnabled() {
+        return AVAILABLE && Types.BULK_ASSEMBLY.isEnabled();
+    }
+
+    static boolean isCompressionEnabled() {
+        return AVAILABLE && Types.COMPRESSION.isEnabled();
+    }
+
+    static boolean isHttpSendEnabled() {
+        return AVAILABLE && Types.HTTP_SEND.isEnabled();
+    }
+
+    static boolean isRetryEnabled() {
+        return AVAILABLE && Types.RETRY.isEnabled();
+    }
+
+    static boolean isDiskQueueGcEnabled() {
+        return AVAILABLE && Types.DISK_QUEUE_GC.isEnabled();
+    }
+
+    private static boolean registerTypes() {
+        try {
+            Types.init();
+            return true;
+        } catch (LinkageError | SecurityException e) {
+            // jdk.jfr isn't in this runtime, or registering is not allowed
+            return false;
+        }
+    }
+
+    /**
+     * Kept apart, so without jdk.jfr only loading this class fails, and registerTypes catches it.
+     */
+    private static class Types {
+        static final EventType DROP = register(DropEvent.class);
+        static final EventType BULK_ASSEMBLY = register(BulkAssemblyEvent.class);
+        static final EventType COMPRESSION = register(CompressionEvent.class);
+        static final EventType HTTP_SEND = register(HttpSendEvent.class);
+        static final EventType RETRY = register(RetryEvent.class);
+        static final EventType DISK_QUEUE_GC = register(DiskQueueGcEvent.class);
+
+        static void init() {
+        }
+
+        private static EventType register(Class<? extends Event> eventClass) {
+            FlightRecorder.register(eventClass);
+            return EventType.getEventType(eventClass);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package io.logz.sender;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Validates a UTF-8 encoded JSON object in one pass over its bytes, without decoding it,
+ * and finds where the encoded value of its root message field is.
+ * UTF-8 sequences are only checked for their structure, lead byte and continuation bytes.
+ * A scanner keeps the results of the last scan, so each thread should use its own.
+ */
+class JsonScanner {
+    private static final int MAX_DEPTH = 255;
+    private static final byte[] MESSAGE_KEY = LogEvent.MESSAGE_FIELD.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private byte[] bytes;
+    private int end;
+    private int messageStart;
+    private int messageEnd;
+    private boolean lineBreaks;
+
+    /**
+     * @return true if the bytes are a single JSON object
+     */
+    boolean scan(byte[] bytes) {
+        this.bytes = bytes;
+        this.end = bytes.length;
+        messageStart = -1;
+        messageEnd = -1;
+        lineBreaks = false;
+        try {
+            int p = skipWhitespace(0);
+            if (p >= end || bytes[p] != '{') {
+                return false;
+            }
+            p = scanObject(p, 0);
+            return p >= 0 && skipWhitespace(p) == end;
+        } finally {
+            this.bytes = null;
+        }
+    }
+
+    /**
+     * @return where the encoded message value starts, after its opening quote, or -1 if the object has no string message field
+     */
+    int getMessageStart() {
+        return messageStart;
+    }
+
+    /**
+     * @return where the encoded message value ends, at its closing quote
+     */
+    int getMessageEnd() {
+        return messageEnd;
+    }
+
+    /**
+     * @return the encoded size of the message value, or -1 if the object has no string message field
+     */
+    int messageSize() {
+        return messageStart < 0 ? -1 : messageEnd - messageStart;
+    }
+
+    /**
+     * Line breaks can only be whitespace between tokens in valid JSON, but they would split the log in a bulk.
+     */
+    boolean hasLineBreaks() {
+        return lineBreaks;
+    }
+
+    static byte[] replaceLineBreaks(byte[] bytes) {
+        byte[] copy = bytes.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] == '\n' || copy[i] == '\r') {
+                copy[i] = ' ';
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the bytes with the encoded string value between start and end cut down to at most maxBytes, followed by suffix.
+     * The cut never splits a multi-byte character or an escape sequence.
+     */
+    static byte[] truncateString(byte[] bytes, int start, int end, int maxBytes, byte[] suffix) {
+        int cut = LogEvent.safeCut(bytes, start, end, maxBytes);
+        byte[] truncated = new byte[cut + suffix.length + bytes.length - end];
+        System.arraycopy(bytes, 0, truncated, 0, cut);
+        System.arraycopy(suffix, 0, truncated, cut, suffix.length);
+        System.arraycopy(bytes, end, truncated, cut + suffix.length, bytes.length - end);
+        return truncated;
+    }
+
+    private int scanObject(int p, int depth) {
+        if (depth >= MAX_DEPTH) {
+            return -1;
+        }
+        p = skipWhitespace(p + 1);
+        if (p < end && bytes[p] == '}') {
+            return p + 1;
+        }
+        while (true) {
+            if (p >= end || bytes[p] != '"') {
+                return -1;
+            }
+            int keyStart = p + 1;
+            p = scanString(p);
+            if (p < 0) {
+                return -1;
+            }
+            boolean isMessage = depth == 0 && isMessageKey(keyStart, p - 1);
+            p = skipWhitespace(p);
+            if (p >= end || bytes[p] != ':') {
+                return -1;
+            }
+            p = skipWhitespace(p + 1);
+            if (isMessage && p < end && bytes[p] == '"') {
+                int valueStart = p + 1;
+                p = scanString(p);
+                if (p < 0) {
+                    return -1;
+                }
+                messageStart = valueStart;
+                messageEnd = p - 1;
+            } else {
+                p = scanValue(p, depth + 1);
+                if (p < 0) {
+                    return -1;
+                }
+            }
+            p = skipWhitespace(p);
+            if (p >= end) {
+                return -1;
+            }
+            if (bytes[p] == '}') {
+                return p + 1;
+            }
+            if (bytes[p] != ',') {
+                return -1;
+            }
+            p = skipWhitespace(p + 1);
+        }
+    }
+
+    private int scanArray(int p, int depth) {
+        if (depth >= MAX_DEPTH) {
+            return -1;
+        }
+        p = skipWhitespace(p + 1);
+        if (p < end && bytes[p] == ']') {
+            return p + 1;
+        }
+        while (true) {
+            p = scanValue(p, depth + 1);
+            if (p < 0) {
+                return -1;
+            }
+            p = skipWhitespace(p);
+            if (p >= end) {
+                return -1;
+            }
+            if (bytes[p] == ']') {
+                return p + 1;
+            }
+            if (bytes[p] != ',') {
+                return -1;
+            }
+            p = skipWhitespace(p + 1);
+        }
+    }
+
+    private int scanValue(int p, int depth) {
+        if (p >= end) {
+            return -1;
+        }
+        switch (bytes[p]) {
+            case '{':
+                return scanObject(p, depth);
+            case '[':
+                return scanArray(p, depth);
+            case '"':
+                return scanString(p);
+            case 't':
+                return scanLiteral(p, TRUE);
+            case 'f':
+                return scanLiteral(p, FALSE);
+            case 'n':
+                return scanLiteral(p, NULL);
+            default:
+                return scanNumber(p);
+        }
+    }
+
+    private int scanString(int p) {
+        p++;
+        while (p < end) {
+            int b = bytes[p] & 0xFF;
+            if (b == '"') {
+                return p + 1;
+            }
+            if (b == '\\') {
+                if (p + 1 >= end) {
+                    return -1;
+                }
+                byte escaped = bytes[p + 1];
+                if (escaped == 'u') {
+                    if (p + 5 >= end || !isHex(bytes[p + 2]) || !isHex(bytes[p + 3]) || !isHex(bytes[p + 4]) || !isHex(bytes[p + 5])) {
+                        return -1;
+                    }
+                    p += 6;
+                } else if ("\"\\/bfnrt".indexOf(escaped) >= 0) {
+                    p += 2;
+                } else {
+                    return -1;
+                }
+            } else if (b < 0x20) {
+                return -1;
+            } else if (b < 0x80) {
+                p++;
+            } else {
+                int length = b >= 0xC2 && b <= 0xDF ? 2 : b >= 0xE0 && b <= 0xEF ? 3 : b >= 0xF0 && b <= 0xF4 ? 4 : 0;
+                if (length == 0 || p + length > end) {
+                    return -1;
+                }
+                for (int i = 1; i < length; i++) {
+                    if ((bytes[p + i] & 0xC0) != 0x80) {
+                        return -1;
+                    }
+                }
+                p += length;
+            }
+        }
+        return -1;
+    }
+
+    private int scanNumber(int p) {
+        if (bytes[p] == '-') {
+            p++;
+        }
+        if (p >= end || !isDigit(bytes[p])) {
+            return -1;
+        }
+        if (bytes[p] == '0') {
+            p++;
+        } else {
+            p = skipDigits(p);
+        }
+        if (p < end && bytes[p] == '.') {
+            p++;
+            if (p >= end || !isDigit(bytes[p])) {
+                return -1;
+            }
+            p = skipDigits(p);
+        }
+        if (p < end && (bytes[p] == 'e' || bytes[p] == 'E')) {
+            p++;
+            if (p < end && (bytes[p] == '+' || bytes[p] == '-')) {
+                p++;
+            }
+            if (p >= end || !isDigit(bytes[p])) {
+                return -1;
+            }
+            p = skipDigits(p);
+        }
+        return p;
+    }
+
+    private int scanLiteral(int p, byte[] literal) {
+        if (p + literal.length > end) {
+            return -1;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (bytes[p + i] != literal[i]) {
+                return -1;
+            }
+        }
+        return p + literal.length;
+    }
+
+    private boolean isMessageKey(int start, int keyEnd) {
+        if (keyEnd - start != MESSAGE_KEY.length) {
+            return false;
+        }
+        for (int i = 0; i < MESSAGE_KEY.length; i++) {
+            if (bytes[start + i] != MESSAGE_KEY[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < end) {
+            byte b = bytes[p];
+            if (b == '\n' || b == '\r') {
+                lineBreaks = true;
+            } else if (b != ' ' && b != '\t') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private int skipDigits(int p) {
+        while (p < end && isDigit(bytes[p])) {
+            p++;
+        }
+        return p;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isHex(byte b) {
+        return isDigit(b) || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+    }
+}
@@ -0,0 +1,421 @@
+package io.logz.sender;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A log record that is written field by field straight into a UTF-8 JSON byte buffer,
+ * without building a Gson tree first.
+ * Obtain an instance with {@link LogzioSender#newLogEvent()}, add fields and hand it back with
+ * {@link LogzioSender#send(LogEvent)}.
+ * Instances are pooled per thread, so an event must not be kept or shared after it was sent.
+ */
+public final class LogEvent {
+    static final String MESSAGE_FIELD = "message";
+    private static final int INITIAL_CAPACITY = 512;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int position;
+    private int depth;
+    private boolean needsComma;
+    private boolean sealed;
+    private int messageStart;
+    private int messageEnd;
+
+    LogEvent() {
+        reset();
+    }
+
+    public LogEvent field(String name, String value) {
+        writeName(name);
+        if (value == null) {
+            write(NULL);
+        } else if (depth == 0 && MESSAGE_FIELD.equals(name)) {
+            messageStart = position + 1;
+            writeString(value);
+            messageEnd = position - 1;
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public LogEvent field(String name, long value) {
+        writeName(name);
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * NaN and infinite values have no JSON representation and are written as null.
+     */
+    public LogEvent field(String name, double value) {
+        writeName(name);
+        writeDouble(value);
+        return this;
+    }
+
+    public LogEvent field(String name, boolean value) {
+        writeName(name);
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Starts a nested object; the following fields are added to it until {@link #endObject()} is called.
+     */
+    public LogEvent beginObject(String name) {
+        writeName(name);
+        writeByte('{');
+        depth++;
+        needsComma = false;
+        return this;
+    }
+
+    public LogEvent endObject() {
+        if (depth == 0) {
+            throw new IllegalStateException("No nested object to end");
+        }
+        writeByte('}');
+        depth--;
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Copies all members of a Gson object into the current level of this event.
+     */
+    void fields(JsonObject json) {
+        for (Map.Entry<String, JsonElement> member : json.entrySet()) {
+            String name = member.getKey();
+            JsonElement value = member.getValue();
+            if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isString()) {
+                field(name, value.getAsString());
+            } else {
+                writeName(name);
+                writeValue(value);
+            }
+        }
+    }
+
+    /**
+     * Appends members that were already encoded, without their braces, to the current level of this event.
+     */
+    void rawFields(byte[] encodedFields) {
+        if (sealed) {
+            throw new IllegalStateException("Log event was already sent");
+        }
+        if (needsComma) {
+            writeByte(',');
+        }
+        write(encodedFields);
+        needsComma = true;
+    }
+
+    private void writeValue(JsonElement value) {
+        if (value.isJsonObject()) {
+            writeByte('{');
+            depth++;
+            needsComma = false;
+            fields(value.getAsJsonObject());
+            endObject();
+        } else if (value.isJsonArray()) {
+            writeByte('[');
+            JsonArray array = value.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeValue(array.get(i));
+            }
+            writeByte(']');
+        } else if (value.isJsonPrimitive()) {
+            writePrimitive(value.getAsJsonPrimitive());
+        } else {
+            write(NULL);
+        }
+    }
+
+    private void writePrimitive(JsonPrimitive primitive) {
+        if (primitive.isString()) {
+            writeString(primitive.getAsString());
+        } else if (primitive.isBoolean()) {
+            write(primitive.getAsBoolean() ? TRUE : FALSE);
+        } else {
+            Number number = primitive.getAsNumber();
+            if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+                writeLong(number.longValue());
+            } else if (number instanceof Double || number instanceof Float) {
+                writeDouble(number.doubleValue());
+            } else {
+                writeAscii(number.toString());
+            }
+        }
+    }
+
+    /**
+     * Closes any nested object that was left open, so the next field lands on the root object.
+     */
+    void endNestedObjects() {
+        while (depth > 0) {
+            endObject();
+        }
+    }
+
+    void seal() {
+        endNestedObjects();
+        writeByte('}');
+        sealed = true;
+    }
+
+    int size() {
+        return position;
+    }
+
+    /**
+     * @return the encoded size of the root message field value, or -1 if the event has no message
+     */
+    int messageSize() {
+        return messageStart < 0 ? -1 : messageEnd - messageStart;
+    }
+
+    /**
+     * Cuts the message field value down to at most {@code maxBytes} encoded bytes and appends {@code suffix}.
+     * The cut never splits a multi-byte character or an escape sequence.
+     */
+    void truncateMessage(int maxBytes, byte[] suffix) {
+        int cut = safeCut(buffer, messageStart, messageEnd, maxBytes);
+        int tailLength = position - messageEnd;
+        System.arraycopy(buffer, messageEnd, buffer, cut + suffix.length, tailLength);
+        System.arraycopy(suffix, 0, buffer, cut, suffix.length);
+        messageEnd = cut + suffix.length;
+        position = messageEnd + tailLength;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        os.write(buffer, 0, position);
+    }
+
+    void reset() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        buffer[0] = '{';
+        position = 1;
+        depth = 0;
+        needsComma = false;
+        sealed = false;
+        messageStart = -1;
+        messageEnd = -1;
+    }
+
+    /**
+     * Finds the furthest position, at most {@code maxBytes} after {@code start}, where an encoded JSON string
+     * value can be cut without splitting a UTF-8 sequence or an escape sequence.
+     */
+    static int safeCut(byte[] bytes, int start, int end, int maxBytes) {
+        int limit = start + maxBytes;
+        int p = start;
+        while (p < end) {
+            int next = p + tokenLength(bytes, p, end);
+            if (next > limit) {
+                break;
+            }
+            p = next;
+        }
+        return p;
+    }
+
+    private static int tokenLength(byte[] bytes, int p, int end) {
+        int b = bytes[p] & 0xFF;
+        if (b == '\\') {
+            if (p + 1 < end && bytes[p + 1] == 'u') {
+                // Keep an escaped surrogate pair together
+                if (p + 11 < end && isHighSurrogateEscape(bytes, p) && bytes[p + 6] == '\\' && bytes[p + 7] == 'u') {
+                    return 12;
+                }
+                return 6;
+            }
+            return 2;
+        }
+        if (b < 0x80) {
+            return 1;
+        }
+        if ((b & 0xE0) == 0xC0) {
+            return 2;
+        }
+        if ((b & 0xF0) == 0xE0) {
+            return 3;
+        }
+        if ((b & 0xF8) == 0xF0) {
+            return 4;
+        }
+        return 1;
+    }
+
+    private static boolean isHighSurrogateEscape(byte[] bytes, int p) {
+        return (bytes[p + 2] == 'd' || bytes[p + 2] == 'D')
+                && "89abAB".indexOf(bytes[p + 3]) >= 0;
+    }
+
+    private void writeName(String name) {
+        if (sealed) {
+            throw new IllegalStateException("Log event was already sent");
+        }
+        if (needsComma) {
+            writeByte(',');
+        }
+        writeString(name);
+        writeByte(':');
+        needsComma = true;
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        ensureCapacity(length * 3 + 2);
+        byte[] buf = buffer;
+        int pos = position;
+        buf[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                } else {
+                    position = pos;
+                    ensureCapacity(6 + (length - i) * 3);
+                    buf = buffer;
+                    pos = writeEscaped(buf, position, c);
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Lone surrogates can't be encoded to UTF-8, same replacement the JDK encoder uses
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buf[pos++] = '"';
+        position = pos;
+    }
+
+    private static int writeEscaped(byte[] buf, int pos, char c) {
+        buf[pos++] = '\\';
+        switch (c) {
+            case '"':
+                buf[pos++] = '"';
+                break;
+            case '\\':
+                buf[pos++] = '\\';
+                break;
+            case '\n':
+                buf[pos++] = 'n';
+                break;
+            case '\r':
+                buf[pos++] = 'r';
+                break;
+            case '\t':
+                buf[pos++] = 't';
+                break;
+            case '\b':
+                buf[pos++] = 'b';
+                break;
+            case '\f':
+                buf[pos++] = 'f';
+                break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = '0';
+                buf[pos++] = '0';
+                buf[pos++] = HEX[c >> 4];
+                buf[pos++] = HEX[c & 0xF];
+        }
+        return pos;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int pos = position + digits;
+        position = pos;
+        do {
+            buffer[--pos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            writeLong((long) value);
+            writeByte('.');
+            writeByte('0');
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    private void writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeByte(char b) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = position + extra;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+}
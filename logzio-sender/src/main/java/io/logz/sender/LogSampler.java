@@ -0,0 +1,213 @@
+package io.logz.sender;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Decides whether a log is sent, by its level and by a rate limit per key, before the log is serialized.
+ * Logs of the always kept levels are sent no matter what. Other logs are sampled with the probability of their level,
+ * and then limited to a number of logs per second for each value of the key field, with a burst of one second.
+ * The rate limit is a generic cell rate algorithm, one atomic long per key, so checking a log allocates nothing.
+ * Only the first {@value #MAX_RATE_LIMIT_KEYS} keys get a limit of their own, later keys share one.
+ * With a tail window, the logs sampled out by their level are kept for that long, up to {@value #MAX_TAIL_LOGS} of them,
+ * and a log of an always kept level sends them along: the ones of its trace, or without a trace id the ones that
+ * had no trace either. Kept logs are copies, so only the tail costs an allocation, and they are counted as sampled out
+ * once they leave the window unsent.
+ */
+class LogSampler {
+    static final String LEVEL_FIELD = "loglevel";
+    static final String TRACE_ID_FIELD = "trace_id";
+    private static final int MAX_RATE_LIMIT_KEYS = 10000;
+    private static final int MAX_TAIL_LOGS = 1000;
+    private static final String NO_KEY = "";
+
+    private final Map<String, Double> samplingRates;
+    private final Set<String> alwaysKeepLevels;
+    private final String levelField;
+    private final String rateLimitKeyField;
+    private final long tailWindowNanos;
+    private final OpenTelemetryContext openTelemetryContext;
+    private final ArrayDeque<TailLog> tail = new ArrayDeque<>();
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+    private final Map<String, AtomicLong> rateLimits = new ConcurrentHashMap<>();
+    private final AtomicLong overflowRateLimit = new AtomicLong(Long.MIN_VALUE);
+    private final SenderMetrics metrics;
+
+    LogSampler(Map<String, Double> samplingRates, Set<String> alwaysKeepLevels, String rateLimitKeyField, int rateLimitPerSecond,
+               SenderMetrics metrics) {
+        this(samplingRates, alwaysKeepLevels, LEVEL_FIELD, rateLimitKeyField, rateLimitPerSecond, 0, null, metrics);
+    }
+
+    /**
+     * @param openTelemetryContext adds the trace of the current span to the logs kept in the tail, on the thread that
+     *                             logged them, and tells the trace of a kept log that has no trace id field. May be null.
+     */
+    LogSampler(Map<String, Double> samplingRates, Set<String> alwaysKeepLevels, String levelField, String rateLimitKeyField,
+               int rateLimitPerSecond, long tailWindowMs, OpenTelemetryContext openTelemetryContext, SenderMetrics metrics) {
+        this.samplingRates = new HashMap<>();
+        samplingRates.forEach((level, rate) -> this.samplingRates.put(level.toUpperCase(Locale.ROOT), rate));
+        this.alwaysKeepLevels = new HashSet<>();
+        alwaysKeepLevels.forEach(level -> this.alwaysKeepLevels.add(level.toUpperCase(Locale.ROOT)));
+        this.levelField = levelField;
+        this.rateLimitKeyField = rateLimitKeyField;
+        this.emissionIntervalNanos = rateLimitPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / rateLimitPerSecond : 0;
+        this.burstNanos = TimeUnit.SECONDS.toNanos(1);
+        this.tailWindowNanos = TimeUnit.MILLISECONDS.toNanos(tailWindowMs);
+        this.openTelemetryContext = openTelemetryContext;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return true if the log should be sent
+     */
+    boolean sample(JsonObject jsonMessage) {
+        return sample(jsonMessage, null);
+    }
+
+    /**
+     * @param keptTail gets the logs of the tail that a log of an always kept level sends along, before this call returns.
+     *                 Without it, the log takes no part in the tail.
+     * @return true if the log should be sent
+     */
+    boolean sample(JsonObject jsonMessage, Consumer<JsonObject> keptTail) {
+        String level = getString(jsonMessage, levelField);
+        if (level != null) {
+            level = level.toUpperCase(Locale.ROOT);
+            if (alwaysKeepLevels.contains(level)) {
+                if (tailWindowNanos > 0 && keptTail != null) {
+                    sendTail(jsonMessage, keptTail);
+                }
+                return true;
+            }
+            Double rate = samplingRates.get(level);
+            if (rate != null && ThreadLocalRandom.current().nextDouble() >= rate) {
+                if (tailWindowNanos > 0 && keptTail != null) {
+                    keepInTail(jsonMessage);
+                } else {
+                    metrics.onDropped(DropReason.SAMPLED);
+                }
+                return false;
+            }
+        }
+        if (emissionIntervalNanos > 0 && !tryAcquire(getString(jsonMessage, rateLimitKeyField))) {
+            metrics.onDropped(DropReason.RATE_LIMITED);
+            return false;
+        }
+        return true;
+    }
+
+    long getSampledOut() {
+        if (tailWindowNanos > 0) {
+            synchronized (tail) {
+                expire(System.nanoTime());
+            }
+        }
+        return metrics.getDroppedLogs(DropReason.SAMPLED);
+    }
+
+    long getRateLimited() {
+        return metrics.getDroppedLogs(DropReason.RATE_LIMITED);
+    }
+
+    private boolean tryAcquire(String key) {
+        AtomicLong theoreticalArrival = rateLimits.get(key == null ? NO_KEY : key);
+        if (theoreticalArrival == null) {
+            theoreticalArrival = rateLimits.size() < MAX_RATE_LIMIT_KEYS
+                    ? rateLimits.computeIfAbsent(key == null ? NO_KEY : key, k -> new AtomicLong(Long.MIN_VALUE))
+                    : overflowRateLimit;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long start = arrival == Long.MIN_VALUE ? now : Math.max(arrival, now);
+            if (start - now >= burstNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, start + emissionIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    private void keepInTail(JsonObject jsonMessage) {
+        JsonObject copy = LogzioSender.freeze(jsonMessage);
+        if (openTelemetryContext != null) {
+            openTelemetryContext.addTo(copy);
+        }
+        TailLog tailLog = new TailLog(System.nanoTime(), getString(copy, TRACE_ID_FIELD), copy);
+        synchronized (tail) {
+            expire(tailLog.arrival);
+            if (tail.size() == MAX_TAIL_LOGS) {
+                tail.removeFirst();
+                metrics.onDropped(DropReason.SAMPLED);
+            }
+            tail.addLast(tailLog);
+        }
+    }
+
+    private void sendTail(JsonObject jsonMessage, Consumer<JsonObject> keptTail) {
+        String traceId = getString(jsonMessage, TRACE_ID_FIELD);
+        if (traceId == null && openTelemetryContext != null) {
+            traceId = openTelemetryContext.currentTraceId();
+        }
+        List<JsonObject> kept = null;
+        synchronized (tail) {
+            expire(System.nanoTime());
+            for (Iterator<TailLog> logs = tail.iterator(); logs.hasNext(); ) {
+                TailLog tailLog = logs.next();
+                if (Objects.equals(traceId, tailLog.traceId)) {
+                    if (kept == null) {
+                        kept = new ArrayList<>();
+                    }
+                    kept.add(tailLog.jsonMessage);
+                    logs.remove();
+                }
+            }
+        }
+        if (kept != null) {
+            kept.forEach(keptTail);
+        }
+    }
+
+    private void expire(long now) {
+        TailLog oldest;
+        while ((oldest = tail.peekFirst()) != null && now - oldest.arrival > tailWindowNanos) {
+            tail.removeFirst();
+            metrics.onDropped(DropReason.SAMPLED);
+        }
+    }
+
+    private static String getString(JsonObject jsonMessage, String field) {
+        JsonElement value = jsonMessage.get(field);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    private static class TailLog {
+        final long arrival;
+        final String traceId;
+        final JsonObject jsonMessage;
+
+        TailLog(long arrival, String traceId, JsonObject jsonMessage) {
+            this.arrival = arrival;
+            this.traceId = traceId;
+            this.jsonMessage = jsonMessage;
+        }
+    }
+}
@@ -9,4 +9,52 @@ public interface LogsQueue extends Closeable {
     byte[] dequeue();
     boolean isEmpty();
     void clear() throws IOException;
-}
\ No newline at end of file
+
+    default void enqueue(FormattedLogMessage log) {
+        enqueue(log.getMessage());
+    }
+
+    /**
+     * Same as {@link #enqueue(FormattedLogMessage)}, but tells whether the log was kept.
+     *
+     * @return false if the log was dropped because the queue is full
+     */
+    default boolean offer(FormattedLogMessage log) {
+        enqueue(log);
+        return true;
+    }
+
+    /**
+     * @param averageLogSize the expected size of the logs, in bytes
+     * @return how many more logs of that size the queue can keep before it starts dropping them
+     */
+    default long remainingCapacity(int averageLogSize) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return how many logs are in the queue, or -1 if the queue doesn't know
+     */
+    default long getQueuedLogs() {
+        return -1;
+    }
+
+    /**
+     * @return how many bytes of logs are in the queue, or -1 if the queue doesn't know
+     */
+    default long getQueuedBytes() {
+        return -1;
+    }
+
+    /**
+     * @return when the oldest log in the queue was added, in epoch milliseconds, or 0 if the queue is empty or doesn't know
+     */
+    default long getOldestEnqueueTimeMillis() {
+        return 0;
+    }
+
+    default FormattedLogMessage dequeueMessage() {
+        byte[] log = dequeue();
+        return log == null ? null : new FormattedLogMessage(log);
+    }
+}
@@ -1,80 +1,242 @@
 package io.logz.sender;
 
 import com.google.common.hash.Hashing;
-import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
 import io.logz.sender.exceptions.LogzioParameterErrorException;
 import io.logz.sender.exceptions.LogzioServerErrorException;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import io.opentelemetry.api.common.Attributes;
-import io.opentelemetry.api.trace.Span;
-import io.opentelemetry.api.trace.SpanContext;
-import io.opentelemetry.sdk.resources.Resource;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LogzioSender {
-    private static final int MAX_SIZE_IN_BYTES = 3 * 1024 * 1024;  // 3 MB
+    private static final int DEFAULT_BATCH_MAX_BYTES = 3 * 1024 * 1024;  // 3 MB
+    private static final int MAX_BATCH_BYTES = 10 * 1024 * 1024;  // Logz.io listener limit
     private static final int MAX_LOG_SIZE_IN_BYTES = 500000;
     private static final int MAX_LOG_LINE_SIZE_IN_BYTES = 32700;
     private static final String CUT_EXCEEDING_LOG = "cut";
     private static final String DROP_EXCEEDING_LOG = "drop";
+    private static final String TYPE_FIELD = "type";
     private static final String TRUNCATED_MESSAGE_SUFFIX = "...truncated";
-    private static final Map<AbstractMap.SimpleImmutableEntry<String, String>, LogzioSender> logzioSenderInstances = new HashMap<>();
-    private static final int FINAL_DRAIN_TIMEOUT_SEC = 20;
+    private static final byte[] TRUNCATED_MESSAGE_SUFFIX_BYTES = TRUNCATED_MESSAGE_SUFFIX.getBytes(StandardCharsets.UTF_8);
+    private static final ThreadLocal<LogEvent> logEvents = ThreadLocal.withInitial(LogEvent::new);
+    private static final ThreadLocal<LogEvent> drainLogEvents = ThreadLocal.withInitial(LogEvent::new);
+    private static final ThreadLocal<JsonScanner> jsonScanners = ThreadLocal.withInitial(JsonScanner::new);
+    private static final Map<AbstractMap.SimpleImmutableEntry<String, String>, LogzioSender> logzioSenderInstances = new ConcurrentHashMap<>();
+    static final int FINAL_DRAIN_TIMEOUT_SEC = 20;
+    private static final int FINAL_DRAIN_THREADS = 4;
+    private static final int SAMPLING_REPORT_INTERVAL_SEC = 60;
+    private static final AtomicInteger MBEAN_IDS = new AtomicInteger();
 
     private final LogsQueue logsQueue;
     private final int drainTimeout;
     private final String exceedMaxSizeAction;
     private final boolean debug;
     private final SenderStatusReporter reporter;
-    private ScheduledExecutorService tasksExecutor;
+    private volatile ScheduledExecutorService tasksExecutor;
     private final AtomicBoolean drainRunning = new AtomicBoolean(false);
     private final HttpsSyncSender httpsSyncSender;
-    private final boolean withOpentelemetryContext;
+    private final OpenTelemetryContext openTelemetryContext;
+    private final SenderTelemetry telemetry;
+    private final IngestStage ingestStage;
+    private final boolean serializeOnDrain;
+    private final int lingerMs;
+    private final int batchMaxBytes;
+    private final int batchMaxCount;
+    private final int batchMaxCompressedBytes;
+    private final AdaptiveBatchController adaptiveBatchController;
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private volatile boolean backingOff;
+    private final AtomicBoolean drainSignaled = new AtomicBoolean(false);
+    private final Queue<FlushWaiter> flushWaiters = new ConcurrentLinkedQueue<>();
+    // Logs that left the queue for good, sent, rejected or dropped, compared with the enqueued logs to complete flushes
+    private final LongAdder drainedLogs = new LongAdder();
+    private final AtomicInteger pendingAcks = new AtomicInteger();
+    private final LogzioSenderRegistry registry;
+    private final DeflaterPool deflaterPool;
+    private volatile ExecutorService drainExecutor;
+    // Periodic tasks on a tasks executor that may outlive the sender, cancelled by stop()
+    private volatile ScheduledFuture<?> samplingReport;
+    private volatile ScheduledFuture<?> dedupExpiry;
+    private volatile ScheduledFuture<?> statusReport;
+    private volatile ScheduledFuture<?> periodicDrain;
+    // Set by stop(), so drains that were already scheduled don't schedule or signal new ones
+    private volatile boolean stopped;
+    // Created by the builder rather than passed in, so stop() shuts it down
+    private volatile boolean ownsTasksExecutor;
+    private final Set<LogzioSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Deduplicator deduplicator;
+    private final int dedupWindowMs;
+    private final LogSampler sampler;
+    private final StaticFields staticFields;
+    private final SenderMetrics metrics;
+    private final boolean jmxMetrics;
+    private volatile ObjectName metricsMBeanName;
+    private long reportedSampledOut;
+    private long reportedRateLimited;
 
-    private LogzioSender(HttpsRequestConfiguration httpsRequestConfiguration, int drainTimeout, boolean debug,
-                         SenderStatusReporter reporter, ScheduledExecutorService tasksExecutor,
-                         LogsQueue logsQueue, String exceedMaxSizeAction, boolean withOpentelemetryContext) throws LogzioParameterErrorException {
-
-        if (logsQueue == null || reporter == null || httpsRequestConfiguration == null) {
-            throw new LogzioParameterErrorException("logsQueue=" + logsQueue + " reporter=" + reporter
+    private LogzioSender(Builder builder, LogsQueue logsQueue) throws LogzioParameterErrorException {
+        HttpsRequestConfiguration httpsRequestConfiguration = builder.httpsRequestConfiguration;
+        if (logsQueue == null || builder.reporter == null || httpsRequestConfiguration == null) {
+            throw new LogzioParameterErrorException("logsQueue=" + logsQueue + " reporter=" + builder.reporter
                     + " httpsRequestConfiguration=" + httpsRequestConfiguration,
                     "For some reason could not initialize URL. Cant recover..");
         }
+        int batchMaxBytes = resolveBatchMaxBytes(builder);
+        validateBatchParameters(batchMaxBytes, builder.batchMaxCount);
+        if (builder.batchMaxCompressedBytes < 0 || (builder.batchMaxCompressedBytes > 0 && !httpsRequestConfiguration.isCompressRequests())) {
+            throw new LogzioParameterErrorException("batchMaxCompressedBytes=" + builder.batchMaxCompressedBytes,
+                    "batchMaxCompressedBytes can't be negative, and can only be set when compressRequests is enabled");
+        }
 
-        this.exceedMaxSizeAction = validateAndGetExceedMaxSizeAction(exceedMaxSizeAction);
+        this.exceedMaxSizeAction = validateAndGetExceedMaxSizeAction(builder.exceedMaxSizeAction);
         this.logsQueue = logsQueue;
-        this.drainTimeout = drainTimeout;
-        this.debug = debug;
-        this.reporter = reporter;
-        httpsSyncSender = new HttpsSyncSender(httpsRequestConfiguration, reporter);
-        this.tasksExecutor = tasksExecutor;
-        this.withOpentelemetryContext = withOpentelemetryContext;
+        this.drainTimeout = builder.drainTimeoutSec;
+        this.debug = builder.debug;
+        this.reporter = builder.reporter;
+        this.registry = builder.registry;
+        this.deflaterPool = registry != null ? registry.getDeflaterPool() : new DeflaterPool(1);
+        this.metrics = new SenderMetrics(logsQueue);
+        // Logs a disk queue kept from the last run were never enqueued by this sender, so flushes don't count them
+        drainedLogs.add(-Math.max(0, logsQueue.getQueuedLogs()));
+        this.jmxMetrics = builder.jmxMetrics;
+        this.telemetry = builder.openTelemetry != null
+                ? new SenderTelemetry(builder.openTelemetry, metrics, httpsRequestConfiguration.getLogzioType(), builder.traceBulks)
+                : null;
+        httpsSyncSender = new HttpsSyncSender(httpsRequestConfiguration, reporter,
+                registry != null ? registry.getConnectionPermits() : null, deflaterPool, metrics, telemetry);
+        this.tasksExecutor = builder.tasksExecutor;
+        this.ownsTasksExecutor = builder.ownsTasksExecutor;
+        this.openTelemetryContext = builder.withOpentelemetryContext ? new OpenTelemetryContext() : null;
+        this.lingerMs = builder.lingerMs;
+        this.batchMaxBytes = batchMaxBytes;
+        this.batchMaxCount = builder.batchMaxCount;
+        this.batchMaxCompressedBytes = builder.batchMaxCompressedBytes;
+        this.adaptiveBatchController = builder.adaptiveBatching
+                ? new AdaptiveBatchController(batchMaxBytes, TimeUnit.SECONDS.toMillis(drainTimeout), builder.adaptiveLatencyTargetMs)
+                : null;
+        metrics.onBatchLimits(getCurrentBatchMaxBytes(), getCurrentDrainIntervalMs());
+        this.drainExecutor = builder.virtualThreads ? createVirtualDrainExecutor() : null;
+        this.ingestStage = createIngestStage(builder.ingestThreads, builder.ingestBufferSize);
+        this.dedupWindowMs = builder.dedupWindowMs;
+        this.deduplicator = createDeduplicator(builder.dedupWindowMs, builder.dedupKeyFields, builder.dedupTableSize);
+        this.sampler = createSampler(builder);
+        this.staticFields = builder.staticFields.isEmpty() ? null : new StaticFields(builder.staticFields);
+        this.serializeOnDrain = logsQueue instanceof InMemoryQueue && ((InMemoryQueue) logsQueue).isSerializeOnDrain();
         debug("Created new LogzioSender class");
     }
 
+    /**
+     * Without an explicit batchMaxBytes, a compressed bulk target gets the listener limit as its uncompressed cap,
+     * as logs usually compress 5-10 times and the default 3 MB would cut bulks long before they reach the target.
+     */
+    private static int resolveBatchMaxBytes(Builder builder) {
+        if (builder.batchMaxBytes != null) {
+            return builder.batchMaxBytes;
+        }
+        return builder.batchMaxCompressedBytes > 0 ? MAX_BATCH_BYTES : DEFAULT_BATCH_MAX_BYTES;
+    }
+
+    private void validateBatchParameters(int batchMaxBytes, int batchMaxCount) throws LogzioParameterErrorException {
+        if (batchMaxBytes <= 0 || batchMaxBytes > MAX_BATCH_BYTES || batchMaxCount <= 0) {
+            throw new LogzioParameterErrorException("batchMaxBytes=" + batchMaxBytes + " batchMaxCount=" + batchMaxCount,
+                    "batchMaxCount must be positive and batchMaxBytes must be between 1 and " + MAX_BATCH_BYTES);
+        }
+    }
+
+    private ExecutorService createVirtualDrainExecutor() {
+        ExecutorService executor = VirtualThreads.newExecutor();
+        if (executor == null) {
+            reporter.warning("Logz.io: virtual threads need Java 21 or newer, draining on the tasks executor instead");
+        }
+        return executor;
+    }
+
+    private IngestStage createIngestStage(int ingestThreads, int ingestBufferSize) throws LogzioParameterErrorException {
+        if (ingestThreads < 0 || ingestBufferSize <= 0) {
+            throw new LogzioParameterErrorException("ingestThreads=" + ingestThreads + " ingestBufferSize=" + ingestBufferSize,
+                    "ingestThreads can't be negative and ingestBufferSize must be positive");
+        }
+        if (ingestThreads == 0) {
+            return null;
+        }
+        // Started by start(), once the rest of the sender is set up
+        return new IngestStage(ingestThreads, ingestBufferSize, this::ingest, reporter);
+    }
+
+    private Deduplicator createDeduplicator(int windowMs, String[] keyFields, int tableSize) throws LogzioParameterErrorException {
+        if (windowMs < 0 || tableSize <= 0 || keyFields == null || keyFields.length == 0) {
+            throw new LogzioParameterErrorException("dedupWindowMs=" + windowMs + " dedupTableSize=" + tableSize
+                    + " dedupKeyFields=" + Arrays.toString(keyFields),
+                    "window can't be negative, table size must be positive and at least one key field is needed");
+        }
+        if (windowMs == 0) {
+            return null;
+        }
+        // The summary is sent later from another thread, so the trace context is taken from the first repeat
+        return new Deduplicator(keyFields.clone(), windowMs, tableSize, openTelemetryContext != null ? openTelemetryContext::addTo : null);
+    }
+
+    private LogSampler createSampler(Builder builder) throws LogzioParameterErrorException {
+        for (Map.Entry<String, Double> samplingRate : builder.samplingRates.entrySet()) {
+            if (samplingRate.getValue() < 0 || samplingRate.getValue() > 1) {
+                throw new LogzioParameterErrorException("samplingRate " + samplingRate.getKey() + "=" + samplingRate.getValue(),
+                        "sampling rate must be between 0 and 1");
+            }
+        }
+        if (builder.rateLimitPerSecond < 0 || builder.rateLimitKeyField == null) {
+            throw new LogzioParameterErrorException("rateLimitPerSecond=" + builder.rateLimitPerSecond + " rateLimitKeyField=" + builder.rateLimitKeyField,
+                    "rate limit can't be negative and needs a key field");
+        }
+        if (builder.samplingTailWindowMs < 0 || builder.levelField == null) {
+            throw new LogzioParameterErrorException("samplingTailWindowMs=" + builder.samplingTailWindowMs + " levelField=" + builder.levelField,
+                    "sampling tail window can't be negative and a level field is needed");
+        }
+        if (builder.samplingRates.isEmpty() && builder.rateLimitPerSecond == 0) {
+            return null;
+        }
+        return new LogSampler(builder.samplingRates, builder.alwaysKeepLevels, builder.levelField, builder.rateLimitKeyField,
+                builder.rateLimitPerSecond, builder.samplingTailWindowMs, openTelemetryContext, metrics);
+    }
+
     private String validateAndGetExceedMaxSizeAction(String exceedMaxSizeAction) throws LogzioParameterErrorException {
-        if (exceedMaxSizeAction != null && Arrays.asList("cut", "drop").contains(exceedMaxSizeAction.toLowerCase())) {
+        if (exceedMaxSizeAction != null && Arrays.asList(CUT_EXCEEDING_LOG, DROP_EXCEEDING_LOG).contains(exceedMaxSizeAction.toLowerCase())) {
             return exceedMaxSizeAction.toLowerCase();
         }
 
         throw new LogzioParameterErrorException("exceedMaxSizeAction=" + exceedMaxSizeAction, "invalid parameter value");
     }
 
-    private static LogzioSender getLogzioSender(HttpsRequestConfiguration httpsRequestConfiguration, int drainTimeout, boolean debug, SenderStatusReporter reporter,
-                                                ScheduledExecutorService tasksExecutor, LogsQueue logsQueue, String exceedMaxSizeAction, boolean withOpentelemetryContext)
-            throws LogzioParameterErrorException {
+    private static synchronized LogzioSender getLogzioSender(Builder builder, LogsQueue logsQueue) throws LogzioParameterErrorException {
+        HttpsRequestConfiguration httpsRequestConfiguration = builder.httpsRequestConfiguration;
+        SenderStatusReporter reporter = builder.reporter;
         String tokenHash = Hashing.sha256()
                 .hashString(httpsRequestConfiguration.getLogzioToken(), StandardCharsets.UTF_8)
                 .toString()
@@ -90,9 +252,11 @@ public class LogzioSender {
                 throw new LogzioParameterErrorException("logsQueue", "null");
             }
 
-            LogzioSender logzioSender = new LogzioSender(httpsRequestConfiguration, drainTimeout, debug, reporter,
-                    tasksExecutor, logsQueue, exceedMaxSizeAction, withOpentelemetryContext);
+            LogzioSender logzioSender = new LogzioSender(builder, logsQueue);
             logzioSenderInstances.put(tokenAndTypePair, logzioSender);
+            if (builder.registry != null) {
+                builder.registry.register(logzioSender);
+            }
             return logzioSender;
         } else {
             reporter.info("Already found appender configured for type " + httpsRequestConfiguration.getLogzioType()
@@ -102,74 +266,506 @@ public class LogzioSender {
             // So we need to take a new one instead, as we can grantee that nothing is running now because it is terminated.
             if (logzioSenderInstance.tasksExecutor.isTerminated()) {
                 reporter.info("The old task executor is terminated! replacing it with a new one");
-                logzioSenderInstance.tasksExecutor = tasksExecutor;
+                logzioSenderInstance.tasksExecutor = builder.tasksExecutor;
+                logzioSenderInstance.ownsTasksExecutor = builder.ownsTasksExecutor;
+            } else if (builder.ownsTasksExecutor) {
+                builder.tasksExecutor.shutdownNow();
             }
             return logzioSenderInstance;
         }
     }
 
-    private void addOpenTelemetryContext(JsonObject jsonMessage) {
-        Span currentSpan = Span.current();
-        if (currentSpan != null) {
-            SpanContext spanContext = currentSpan.getSpanContext();
-            if (spanContext.isValid()) {
-                jsonMessage.addProperty("trace_id", spanContext.getTraceId());
-                jsonMessage.addProperty("span_id", spanContext.getSpanId());
-                Resource resource = Resource.getDefault();
-                Attributes attributes = resource.getAttributes();
-                String serviceName = attributes.get(io.opentelemetry.semconv.resource.attributes.ResourceAttributes.SERVICE_NAME);
-                jsonMessage.addProperty("service_name", serviceName);
-            }
+    /**
+     * Resolves the OpenTelemetry resource fields added to logs again, for when the resource changed after the sender was created.
+     */
+    public void refreshOpenTelemetryResource() {
+        if (openTelemetryContext != null) {
+            openTelemetryContext.refreshResource();
         }
     }
+
     public void start() {
-        tasksExecutor.scheduleWithFixedDelay(this::drainQueueAndSend, 0, drainTimeout, TimeUnit.SECONDS);
+        stopped = false;
+        if (registry != null) {
+            registry.register(this);
+        }
+        if (drainExecutor != null && drainExecutor.isShutdown()) {
+            // Started again after stop(), which shut the drain threads down
+            drainExecutor = VirtualThreads.newExecutor();
+        }
+        if (jmxMetrics) {
+            registerMetricsMBean();
+        }
+        if (telemetry != null) {
+            telemetry.start();
+        }
+        if (ingestStage != null) {
+            ingestStage.start();
+        }
+        statusReport = tasksExecutor.scheduleWithFixedDelay(this::reportDueStatus,
+                StatusEvents.DEFAULT_INTERVAL_MS, StatusEvents.DEFAULT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (sampler != null) {
+            samplingReport = tasksExecutor.scheduleWithFixedDelay(this::reportSampling, SAMPLING_REPORT_INTERVAL_SEC, SAMPLING_REPORT_INTERVAL_SEC, TimeUnit.SECONDS);
+        }
+        if (deduplicator != null) {
+            dedupExpiry = tasksExecutor.scheduleWithFixedDelay(() -> deduplicator.expire(System.currentTimeMillis(), this::sendCopy),
+                    dedupWindowMs, dedupWindowMs, TimeUnit.MILLISECONDS);
+        }
+        if (lingerMs < 0 && adaptiveBatchController != null) {
+            scheduleAdaptiveDrain(0);
+        } else if (lingerMs < 0) {
+            periodicDrain = tasksExecutor.scheduleWithFixedDelay(() -> runDrain(this::drainQueueAndSend), 0, drainTimeout, TimeUnit.SECONDS);
+        } else {
+            // Send whatever a disk queue kept from the last run, from now on drains are signaled by enqueued logs
+            signalDrain();
+        }
     }
 
     public void stop() {
-        // Creating a scheduled executor, outside of logback to try and drain the queue one last time
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
-        debug("Got stop request, Submitting a final drain queue task to drain before shutdown. Will timeout in " + FINAL_DRAIN_TIMEOUT_SEC + " seconds.");
+        stop(Duration.ofSeconds(FINAL_DRAIN_TIMEOUT_SEC));
+    }
+
+    /**
+     * Stops reusing this sender for its token and type, so building a sender for them creates a new one.
+     */
+    void removeInstance() {
+        logzioSenderInstances.values().remove(this);
+    }
+
+    /**
+     * Sends what is left in the queue before shutdown, with up to {@value #FINAL_DRAIN_THREADS} bulks in flight,
+     * and gives up on the rest once the timeout expires.
+     * The drain threads and scheduler the sender created are shut down, a tasks executor that was passed in is not.
+     * A stopped sender is no longer reused for its token and type, and leaves its registry.
+     */
+    public void stop(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        stopped = true;
+        removeInstance();
+        if (registry != null) {
+            registry.unregister(this);
+        }
+        // Creating executor, outside of logback to try and drain the queue one last time
+        ExecutorService executorService = drainExecutor != null ? VirtualThreads.newExecutor() : Executors.newFixedThreadPool(FINAL_DRAIN_THREADS);
+        if (debug) {
+            debug("Got stop request, Submitting final drain queue tasks to drain before shutdown. Will timeout in " + timeout.toMillis() + " ms.");
+        }
+        subscribers.forEach(LogzioSubscriber::cancel);
+        subscribers.clear();
 
         try {
-            executorService.submit(this::drainQueue).get(FINAL_DRAIN_TIMEOUT_SEC, TimeUnit.SECONDS);
+            if (periodicDrain != null) {
+                periodicDrain.cancel(false);
+            }
+            if (statusReport != null) {
+                statusReport.cancel(false);
+            }
+            if (samplingReport != null) {
+                samplingReport.cancel(false);
+            }
+            if (deduplicator != null) {
+                if (dedupExpiry != null) {
+                    dedupExpiry.cancel(false);
+                }
+                deduplicator.expireAll(this::sendCopy);
+            }
+            if (ingestStage != null) {
+                ingestStage.stop(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            }
+            List<Future<Boolean>> drains = new ArrayList<>();
+            for (int i = 0; i < FINAL_DRAIN_THREADS; i++) {
+                drains.add(executorService.submit(() -> drainQueue(Integer.MAX_VALUE)));
+            }
+            for (Future<Boolean> drain : drains) {
+                drain.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
         } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            debug("Waited " + FINAL_DRAIN_TIMEOUT_SEC + " seconds, but could not finish draining. quitting.", e);
+            if (debug) {
+                debug("Waited " + timeout.toMillis() + " ms, but could not finish draining. quitting.", e);
+            }
         } finally {
             executorService.shutdownNow();
+            completeFlushes(true);
+            unregisterMetricsMBean();
+            httpsSyncSender.reportStatus();
+            if (logsQueue instanceof InMemoryQueue) {
+                ((InMemoryQueue) logsQueue).reportStatus();
+            }
+            if (telemetry != null) {
+                telemetry.stop();
+            }
+            // A tasks executor that was passed in belongs to the caller, who may share it with other work
+            if (drainExecutor != null) {
+                drainExecutor.shutdownNow();
+            }
+            if (ownsTasksExecutor) {
+                tasksExecutor.shutdownNow();
+            }
         }
     }
 
+    /**
+     * @return what the sender did with its logs since it was created
+     */
+    public SenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void registerMetricsMBean() {
+        try {
+            ObjectName name = new ObjectName("io.logz.sender:type=SenderMetrics,logzioType="
+                    + ObjectName.quote(String.valueOf(httpsSyncSender.getConfiguration().getLogzioType())) + ",id=" + MBEAN_IDS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsMBeanName = name;
+        } catch (JMException e) {
+            reporter.warning("Could not register the Logz.io sender metrics MBean", e);
+        }
+    }
 
-    public void drainQueueAndSend() {
+    private void unregisterMetricsMBean() {
+        ObjectName name = metricsMBeanName;
+        if (name == null) {
+            return;
+        }
+        metricsMBeanName = null;
         try {
-            if (drainRunning.get()) {
-                debug("Drain is running so we won't run another one in parallel");
-                return;
-            } else {
-                drainRunning.set(true);
-            }
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            debug("Could not unregister the metrics MBean", e);
+        }
+    }
+
+    /**
+     * Sends everything that was handed to the sender so far, without waiting for the next drain.
+     * The future completes once as many logs left the queue as were enqueued before this call, so it
+     * completes under steady logging too. Logs still in the ingest stage are counted once they are enqueued.
+     * The future does not complete while Logz.io can't be reached, so wait on it with a timeout.
+     *
+     * @return a future that completes once the logs sent before this call were shipped
+     */
+    public CompletableFuture<Void> flush() {
+        FlushWaiter waiter = new FlushWaiter(ingestStage != null ? ingestStage.getOfferedCount() : 0);
+        flushWaiters.add(waiter);
+        if (!signalDrain() && (stopped || tasksExecutor.isShutdown()) && flushWaiters.remove(waiter)) {
+            waiter.flushed.completeExceptionally(new IllegalStateException("The sender is stopped, can't flush"));
+        }
+        return waiter.flushed;
+    }
 
-            drainQueue();
+    private void completeFlushes(boolean stopping) {
+        Iterator<FlushWaiter> waiters = flushWaiters.iterator();
+        while (waiters.hasNext()) {
+            FlushWaiter waiter = waiters.next();
+            if (waiter.isFlushed()) {
+                waiter.flushed.complete(null);
+                waiters.remove();
+            } else if (stopping) {
+                waiter.flushed.completeExceptionally(new IllegalStateException("Sender stopped before all logs were sent"));
+                waiters.remove();
+            }
+        }
+    }
 
+    public void drainQueueAndSend() {
+        if (stopped) {
+            // A drain scheduled before stop(), which already drained the queue one last time
+            return;
+        }
+        if (!drainRunning.compareAndSet(false, true)) {
+            debug("Drain is running so we won't run another one in parallel");
+            return;
+        }
+        boolean drained = false;
+        try {
+            // Senders that share a registry send a bulk per turn and then let the others have the drain threads
+            drained = drainQueue(registry != null ? 1 : Integer.MAX_VALUE);
         } catch (Exception e) {
             // We cant throw anything out, or the task will stop, so just swallow all
             reporter.error("Uncaught error from Logz.io sender", e);
         } finally {
             drainRunning.set(false);
         }
+        completeFlushes(false);
+        for (LogzioSubscriber subscriber : subscribers) {
+            subscriber.onDrained();
+        }
+        if (drained && registry != null && !logsQueue.isEmpty()) {
+            signalDrain();
+        }
+
+        if (lingerMs < 0) {
+            return;
+        }
+        // Reset before checking the queue, a log enqueued after the check starts a new batch and schedules its own linger.
+        // A signal that came while we were draining was ignored, so check for logs that were left behind.
+        // After a failure there is no point retrying sooner than drainTimeoutSec, so until the scheduled retry
+        // enqueued logs don't signal drains of their own.
+        if (drained) {
+            pendingCount.set(0);
+            pendingBytes.set(0);
+        }
+        boolean hasLogs = !logsQueue.isEmpty();
+        backingOff = !drained && hasLogs;
+        if (hasLogs) {
+            scheduleDrain(drained ? lingerMs : TimeUnit.SECONDS.toMillis(drainTimeout));
+        } else if (!flushWaiters.isEmpty()) {
+            // A flush may still wait for ingested logs that were dropped instead of enqueued, check again later
+            scheduleDrain(TimeUnit.SECONDS.toMillis(drainTimeout));
+        }
+    }
+
+    private void scheduleAdaptiveDrain(long delayMs) {
+        if (stopped) {
+            return;
+        }
+        try {
+            periodicDrain = tasksExecutor.schedule(() -> runDrain(() -> {
+                drainQueueAndSend();
+                scheduleAdaptiveDrain(adaptiveBatchController.getDrainIntervalMs());
+            }), delayMs, TimeUnit.MILLISECONDS);
+            if (stopped) {
+                // stop() ran meanwhile, and may have cancelled the previous drain instead of this one
+                periodicDrain.cancel(false);
+            }
+        } catch (RejectedExecutionException e) {
+            debug("Tasks executor is shut down, stopping the adaptive drain");
+        }
+    }
+
+    private void reportDueStatus() {
+        httpsSyncSender.reportDueStatus();
+        if (logsQueue instanceof InMemoryQueue) {
+            ((InMemoryQueue) logsQueue).reportDueStatus();
+        }
+    }
+
+    private void reportSampling() {
+        long sampledOut = sampler.getSampledOut();
+        long rateLimited = sampler.getRateLimited();
+        if (sampledOut != reportedSampledOut || rateLimited != reportedRateLimited) {
+            reporter.info(String.format("Logz.io: Sampling dropped %d logs and rate limiting dropped %d logs in the last %d seconds",
+                    sampledOut - reportedSampledOut, rateLimited - reportedRateLimited, SAMPLING_REPORT_INTERVAL_SEC));
+            reportedSampledOut = sampledOut;
+            reportedRateLimited = rateLimited;
+        }
+    }
+
+    /**
+     * @return how many logs were dropped by their level's sampling rate since the sender was created
+     */
+    public long getSampledOutCount() {
+        return metrics.getDroppedLogs(DropReason.SAMPLED);
+    }
+
+    /**
+     * @return how many logs were dropped by the rate limit since the sender was created
+     */
+    public long getRateLimitedCount() {
+        return metrics.getDroppedLogs(DropReason.RATE_LIMITED);
+    }
+
+    /**
+     * @return the current bulk size limit, which changes with the observed latency and backlog when adaptive batching is enabled
+     */
+    public int getCurrentBatchMaxBytes() {
+        return adaptiveBatchController != null ? adaptiveBatchController.getBatchMaxBytes() : batchMaxBytes;
+    }
+
+    /**
+     * @return the current delay between drains, which changes with the observed latency and backlog when adaptive batching is enabled
+     */
+    public long getCurrentDrainIntervalMs() {
+        return adaptiveBatchController != null ? adaptiveBatchController.getDrainIntervalMs() : TimeUnit.SECONDS.toMillis(drainTimeout);
+    }
+
+    private void onEnqueued(int size) {
+        if (lingerMs < 0 || backingOff) {
+            return;
+        }
+        long count = pendingCount.incrementAndGet();
+        long bytes = pendingBytes.addAndGet(size);
+        if (count >= batchMaxCount || bytes >= getCurrentBatchMaxBytes()) {
+            signalDrain();
+        } else if (count == 1) {
+            // First log of a new batch, it waits at most lingerMs for the batch to fill
+            scheduleDrain(lingerMs);
+        }
+    }
+
+    /**
+     * @return false if the drain could not be submitted
+     */
+    private boolean signalDrain() {
+        if (stopped) {
+            return false;
+        }
+        if (drainSignaled.compareAndSet(false, true)) {
+            try {
+                Executor executor = drainExecutor != null ? drainExecutor : tasksExecutor;
+                executor.execute(() -> {
+                    drainSignaled.set(false);
+                    drainQueueAndSend();
+                });
+            } catch (RejectedExecutionException e) {
+                drainSignaled.set(false);
+                debug("Tasks executor is shut down, could not signal a drain");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * In virtual threads mode the tasks executor only keeps time, and the drain itself, with its blocking requests
+     * and retry sleeps, runs on a virtual thread.
+     */
+    private void runDrain(Runnable drain) {
+        if (drainExecutor == null) {
+            drain.run();
+            return;
+        }
+        try {
+            drainExecutor.execute(drain);
+        } catch (RejectedExecutionException e) {
+            debug("Drain executor is shut down, could not run a drain");
+        }
+    }
+
+    private void scheduleDrain(long delayMs) {
+        if (stopped) {
+            return;
+        }
+        try {
+            tasksExecutor.schedule(() -> runDrain(this::drainQueueAndSend), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            debug("Tasks executor is shut down, could not schedule a drain");
+        }
+    }
+
+    /**
+     * Creates a subscriber that sends the logs of a publisher with backpressure: it requests logs in chunks of about
+     * a bulk, and only as many as the queue has room for, so a fast publisher waits for drains instead of having
+     * its logs dropped. Stopping the sender cancels the subscription.
+     * A subscriber can only be subscribed once, so create one per publisher.
+     *
+     * @return a subscriber that sends each log like {@link #send(JsonObject)}
+     */
+    public Flow.Subscriber<JsonObject> newSubscriber() {
+        return new LogzioSubscriber(this);
+    }
+
+    void register(LogzioSubscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    void unregister(LogzioSubscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    long getBulkSizeInLogs(int averageLogSize) {
+        return Math.min(batchMaxCount, Math.max(1, getCurrentBatchMaxBytes() / averageLogSize));
+    }
+
+    long getRemainingQueueCapacity(int averageLogSize) {
+        return logsQueue.remainingCapacity(averageLogSize);
     }
 
     public void clearQueue() throws IOException {
+        long clearedLogs = logsQueue.getQueuedLogs();
         this.logsQueue.clear();
+        drainedLogs.add(Math.max(0, clearedLogs));
     }
 
+    /**
+     * Send a log to Logz.io.
+     * When ingest threads are configured, or with serializeOnDrain, the log is kept past this call,
+     * so the sender takes a copy of it and the JsonObject may be reused or modified once this call returns.
+     *
+     * @param jsonMessage the log, with a message field
+     */
     public void send(JsonObject jsonMessage) {
-        if (this.withOpentelemetryContext) {
-            addOpenTelemetryContext(jsonMessage);
+        send(jsonMessage, false);
+    }
+
+    /**
+     * Send a log with its own type, instead of the type of the sender. The listener reads the type field of each log line,
+     * so logs of any number of types can share one sender, queue and connection.
+     *
+     * @param jsonMessage the log, with a message field. The type is set on a copy, so the JsonObject is left as is.
+     * @param type        the Logz.io type of this log
+     */
+    public void send(JsonObject jsonMessage, String type) {
+        JsonObject typedMessage = freeze(jsonMessage);
+        typedMessage.addProperty(TYPE_FIELD, type);
+        send(typedMessage, true);
+    }
+
+    /**
+     * @param owned whether the JsonObject is already a copy owned by the sender
+     */
+    private void send(JsonObject jsonMessage, boolean owned) {
+        if (sampler != null && !sampler.sample(jsonMessage, this::sendCopy)) {
+            return;
+        }
+        if (deduplicator != null && !deduplicator.offer(jsonMessage, System.currentTimeMillis(), this::sendCopy)) {
+            metrics.onDropped(DropReason.DEDUPLICATED);
+            return;
+        }
+        if (!owned && (ingestStage != null || serializeOnDrain)) {
+            jsonMessage = freeze(jsonMessage);
+        }
+        if (openTelemetryContext != null) {
+            openTelemetryContext.addTo(jsonMessage);
+        }
+        if (ingestStage == null || !ingestStage.offer(jsonMessage)) {
+            process(jsonMessage);
+        }
+    }
+
+    /**
+     * Same as {@link #send(JsonObject, String)}, for an event that was created by {@link #newLogEvent()}.
+     */
+    public void send(LogEvent logEvent, String type) {
+        logEvent.endNestedObjects();
+        send(logEvent.field(TYPE_FIELD, type));
+    }
+
+    /**
+     * Copies the top-level members of a log, for a copy the sender owns. Primitives are immutable and shared,
+     * only nested objects and arrays are copied.
+     */
+    static JsonObject freeze(JsonObject jsonMessage) {
+        JsonObject frozen = new JsonObject();
+        for (Map.Entry<String, JsonElement> member : jsonMessage.entrySet()) {
+            JsonElement value = member.getValue();
+            frozen.add(member.getKey(), value.isJsonPrimitive() || value.isJsonNull() ? value : value.deepCopy());
+        }
+        return frozen;
+    }
+
+    /**
+     * Dedup summaries and the tail kept by sampling are copies owned by the sender, which carry the trace context
+     * of the thread that logged them.
+     */
+    private void sendCopy(JsonObject jsonMessage) {
+        process(jsonMessage);
+    }
+
+    private void ingest(Object log) {
+        if (log instanceof JsonObject) {
+            process((JsonObject) log);
+        } else {
+            process((byte[]) log);
+        }
+    }
+
+    private void process(JsonObject jsonMessage) {
+        if (serializeOnDrain) {
+            enqueue(new SerializeOnDrainLogMessage(jsonMessage));
+            return;
         }
         // check for oversized message
-        int jsonByteLength = jsonMessage.toString().getBytes(StandardCharsets.UTF_8).length;
+        int jsonByteLength = jsonMessage.toString().getBytes(StandardCharsets.UTF_8).length + (staticFields != null ? staticFields.size() : 0);
         String jsonMessageField = jsonMessage.get("message").getAsString();
         if (jsonByteLength > MAX_LOG_SIZE_IN_BYTES || jsonMessageField.length() >= MAX_LOG_LINE_SIZE_IN_BYTES) {
 
@@ -179,73 +775,216 @@ public class LogzioSender {
 
             if (truncatedMessageSize <= 0 || exceedMaxSizeAction.equals(DROP_EXCEEDING_LOG)) {
                 debug(truncatedMessageSize <= 0 ? "Message field is empty after truncating, dropping log" : "Dropping oversized log");
+                metrics.onDropped(DropReason.OVERSIZED);
                 return;
             }
 
             // truncate message field
             String truncatedMessage = jsonMessageField.substring(0, truncatedMessageSize) + TRUNCATED_MESSAGE_SUFFIX;
             jsonMessage.addProperty("message", truncatedMessage);
+            metrics.onTruncated();
             debug("Truncated oversized log");
         }
 
-        logsQueue.enqueue(jsonMessage.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] log = jsonMessage.toString().getBytes(StandardCharsets.UTF_8);
+        enqueue(staticFields != null ? staticFields.appendTo(log) : log);
     }
 
+    private void enqueue(byte[] log) {
+        enqueue(new FormattedLogMessage(log));
+    }
 
     /**
-     * Send byte array to Logz.io
-     * This method is not the recommended method to use
-     * since it is up to the user to supply with a valid UTF8 json byte array
-     * representation, and converting the byte array to JsonObject is necessary for log size validation.
-     * In any case the byte[] is not valid, the logs will not be sent.
+     * @return false if the queue was full
+     */
+    private boolean enqueue(FormattedLogMessage log) {
+        if (!logsQueue.offer(log)) {
+            metrics.onDropped(DropReason.QUEUE_FULL);
+            return false;
+        }
+        metrics.onEnqueued();
+        onEnqueued(log.getSize());
+        return true;
+    }
+
+
+    /**
+     * Returns this thread's pooled {@link LogEvent}, emptied and ready for new fields.
+     * The event is reused by the next call on the same thread, so it should be sent before creating another one.
+     */
+    public LogEvent newLogEvent() {
+        LogEvent logEvent = logEvents.get();
+        logEvent.reset();
+        return logEvent;
+    }
+
+    /**
+     * Send a log event that was created by {@link #newLogEvent()}.
+     * The same size limits as {@link #send(JsonObject)} are enforced on the encoded bytes,
+     * without decoding the event back into a JSON tree.
      *
-     * @param jsonStringAsUTF8ByteArray UTF8 byte array representation of a valid json object.
+     * @param logEvent the event to send, which must not be used again after this call.
      */
-    public void send(byte[] jsonStringAsUTF8ByteArray) {
-        Gson gson = new Gson();
-        boolean dropLog = false;
+    public void send(LogEvent logEvent) {
         try {
-            if (jsonStringAsUTF8ByteArray.length > MAX_LOG_SIZE_IN_BYTES) {
-                if (exceedMaxSizeAction.equals(CUT_EXCEEDING_LOG)) {
-                    String jsonString = new String(jsonStringAsUTF8ByteArray, StandardCharsets.UTF_8);
-                    JsonObject json = gson.fromJson(jsonString, JsonElement.class).getAsJsonObject();
-                    String messageString = json.get("message").getAsString();
-                    int truncatedMessageSize = Math.min(MAX_LOG_LINE_SIZE_IN_BYTES - TRUNCATED_MESSAGE_SUFFIX.length(),
-                            (messageString.getBytes(StandardCharsets.UTF_8).length -
-                                    (jsonString.getBytes(StandardCharsets.UTF_8).length - MAX_LOG_SIZE_IN_BYTES)) - TRUNCATED_MESSAGE_SUFFIX.length());
-                    if (truncatedMessageSize <= 0) {
-                        dropLog = true;
-                    } else {
-                        String truncatedMessage = messageString.substring(0, truncatedMessageSize) + TRUNCATED_MESSAGE_SUFFIX;
-                        json.addProperty("message", truncatedMessage);
-                        jsonStringAsUTF8ByteArray = json.toString().getBytes(StandardCharsets.UTF_8);
-                        debug("Truncated oversized log");
-                    }
+            byte[] log = encode(logEvent);
+            if (log != null) {
+                enqueue(log);
+            }
+        } finally {
+            logEvent.reset();
+        }
+    }
+
+    /**
+     * Send a log and track what happens to it, for logs that must not be lost silently.
+     * The log is encoded and validated on the calling thread. With the in-memory queue the future completes
+     * once the bulk that contains the log was answered by the listener, so it does not complete while Logz.io
+     * can't be reached. With the disk queue it completes once the log was persisted.
+     * Sampling, rate limiting and deduplication apply like for {@link #send(JsonObject)}.
+     *
+     * @param jsonMessage the log, with a message field
+     * @return a future of what happened to the log
+     */
+    public CompletableFuture<DeliveryResult> sendWithAck(JsonObject jsonMessage) {
+        if (sampler != null && !sampler.sample(jsonMessage)) {
+            return CompletableFuture.completedFuture(DeliveryResult.DROPPED_SAMPLED);
+        }
+        if (deduplicator != null && !deduplicator.offer(jsonMessage, System.currentTimeMillis(), this::sendCopy)) {
+            metrics.onDropped(DropReason.DEDUPLICATED);
+            return CompletableFuture.completedFuture(DeliveryResult.DROPPED_DEDUPLICATED);
+        }
+        // Not the thread's pooled event, which the caller may be filling in
+        LogEvent logEvent = new LogEvent();
+        logEvent.fields(jsonMessage);
+        return sendWithAck(logEvent);
+    }
+
+    /**
+     * Same as {@link #sendWithAck(JsonObject)}, for an event that was created by {@link #newLogEvent()}.
+     * Like {@link #send(LogEvent)}, the event is not sampled, rate limited or deduplicated.
+     */
+    public CompletableFuture<DeliveryResult> sendWithAck(LogEvent logEvent) {
+        CompletableFuture<DeliveryResult> delivery = new CompletableFuture<>();
+        try {
+            byte[] log = encode(logEvent);
+            if (log == null) {
+                delivery.complete(DeliveryResult.DROPPED_OVERSIZED);
+            } else if (!(logsQueue instanceof InMemoryQueue)) {
+                // The disk queue only keeps the bytes, and may deliver them after a restart
+                delivery.complete(enqueue(new FormattedLogMessage(log)) ? DeliveryResult.PERSISTED : DeliveryResult.DROPPED_QUEUE_FULL);
+            } else {
+                pendingAcks.incrementAndGet();
+                if (!enqueue(new AckedLogMessage(log, delivery))) {
+                    pendingAcks.decrementAndGet();
+                    delivery.complete(DeliveryResult.DROPPED_QUEUE_FULL);
                 }
             }
-            // Invalid json format, or truncating the message field was no
-        } catch (JsonSyntaxException | IndexOutOfBoundsException e) {
-            dropLog = true;
+        } finally {
+            logEvent.reset();
         }
+        return delivery;
+    }
 
-        if (dropLog || exceedMaxSizeAction.equals(DROP_EXCEEDING_LOG)) {
-            debug(dropLog ? "Message field is empty after truncating, dropping log" : "Dropping oversized log");
-            return;
+    /**
+     * @return the encoded log, or null if it should be dropped
+     */
+    private byte[] encode(LogEvent logEvent) {
+        if (openTelemetryContext != null) {
+            logEvent.endNestedObjects();
+            openTelemetryContext.addTo(logEvent);
         }
-        // Return the byte[], while separating lines with \n
-        logsQueue.enqueue(jsonStringAsUTF8ByteArray);
+        if (staticFields != null) {
+            staticFields.appendTo(logEvent);
+        }
+        logEvent.seal();
+        return fitToSizeLimits(logEvent) ? logEvent.toByteArray() : null;
+    }
 
+    /**
+     * Truncates the message field of an oversized event in place.
+     *
+     * @return false if the event should be dropped instead
+     */
+    private boolean fitToSizeLimits(LogEvent logEvent) {
+        int logSize = logEvent.size();
+        int messageSize = logEvent.messageSize();
+        if (logSize > MAX_LOG_SIZE_IN_BYTES || messageSize >= MAX_LOG_LINE_SIZE_IN_BYTES) {
+            int truncatedMessageSize = truncatedMessageSize(logSize, messageSize);
+
+            if (truncatedMessageSize <= 0 || exceedMaxSizeAction.equals(DROP_EXCEEDING_LOG)) {
+                debug(truncatedMessageSize <= 0 ? "Message field is empty after truncating, dropping log" : "Dropping oversized log");
+                metrics.onDropped(DropReason.OVERSIZED);
+                return false;
+            }
+
+            logEvent.truncateMessage(truncatedMessageSize, TRUNCATED_MESSAGE_SUFFIX_BYTES);
+            metrics.onTruncated();
+            debug("Truncated oversized log");
+        }
+        return true;
+    }
+
+    /**
+     * @return how many encoded bytes of the message field can be kept for the log to fit, or a negative value if none
+     */
+    private static int truncatedMessageSize(int logSize, int messageSize) {
+        return Math.min(MAX_LOG_LINE_SIZE_IN_BYTES - TRUNCATED_MESSAGE_SUFFIX_BYTES.length,
+                (messageSize - (logSize - MAX_LOG_SIZE_IN_BYTES)) - TRUNCATED_MESSAGE_SUFFIX_BYTES.length);
+    }
+
+    /**
+     * Send byte array to Logz.io
+     * It is up to the user to supply a valid UTF8 JSON object. The bytes are validated in a single pass
+     * without decoding them, and a byte[] that is not a valid JSON object is not sent.
+     * An oversized message field is truncated on the encoded bytes, like for a {@link LogEvent}.
+     *
+     * @param jsonStringAsUTF8ByteArray UTF8 byte array representation of a valid json object.
+     */
+    public void send(byte[] jsonStringAsUTF8ByteArray) {
+        if (ingestStage == null || !ingestStage.offer(jsonStringAsUTF8ByteArray)) {
+            process(jsonStringAsUTF8ByteArray);
+        }
+    }
+
+    private void process(byte[] jsonStringAsUTF8ByteArray) {
+        JsonScanner scanner = jsonScanners.get();
+        if (!scanner.scan(jsonStringAsUTF8ByteArray)) {
+            debug("Dropping log that is not a valid JSON object");
+            metrics.onDropped(DropReason.INVALID);
+            return;
+        }
+        byte[] log = scanner.hasLineBreaks() ? JsonScanner.replaceLineBreaks(jsonStringAsUTF8ByteArray) : jsonStringAsUTF8ByteArray;
+        if (staticFields != null) {
+            // The fields go after the message, so the message range found by the scan stays valid
+            log = staticFields.appendTo(log);
+        }
+        int messageSize = scanner.messageSize();
+        if (log.length > MAX_LOG_SIZE_IN_BYTES || messageSize >= MAX_LOG_LINE_SIZE_IN_BYTES) {
+            int truncatedMessageSize = truncatedMessageSize(log.length, messageSize);
+            if (truncatedMessageSize <= 0 || exceedMaxSizeAction.equals(DROP_EXCEEDING_LOG)) {
+                debug(truncatedMessageSize <= 0 ? "Message field is empty after truncating, dropping log" : "Dropping oversized log");
+                metrics.onDropped(DropReason.OVERSIZED);
+                return;
+            }
+            log = JsonScanner.truncateString(log, scanner.getMessageStart(), scanner.getMessageEnd(),
+                    truncatedMessageSize, TRUNCATED_MESSAGE_SUFFIX_BYTES);
+            metrics.onTruncated();
+            debug("Truncated oversized log");
+        }
+        enqueue(log);
     }
 
     private List<FormattedLogMessage> dequeueUpToMaxBatchSize() {
+        int maxBytes = getCurrentBatchMaxBytes();
         List<FormattedLogMessage> logsList = new ArrayList<>();
         int totalSize = 0;
         while (!logsQueue.isEmpty()) {
-            byte[] message = logsQueue.dequeue();
-            if (message != null && message.length > 0) {
-                logsList.add(new FormattedLogMessage(message));
-                totalSize += message.length;
-                if (totalSize >= MAX_SIZE_IN_BYTES) {
+            FormattedLogMessage message = logsQueue.dequeueMessage();
+            if (message != null && message.getSize() > 0) {
+                logsList.add(message);
+                totalSize += message.getSize();
+                if (totalSize >= maxBytes || logsList.size() >= batchMaxCount) {
                     break;
                 }
             }
@@ -253,24 +992,125 @@ public class LogzioSender {
         return logsList;
     }
 
-    private void drainQueue() {
+    private CompressedBulk dequeueUpToMaxCompressedSize() {
+        int maxBytes = getCurrentBatchMaxBytes();
+        CompressedBulk bulk = new CompressedBulk(batchMaxCompressedBytes, deflaterPool);
+        while (!logsQueue.isEmpty()) {
+            FormattedLogMessage message = logsQueue.dequeueMessage();
+            if (message != null && message.getSize() > 0) {
+                bulk.add(message);
+                if (bulk.estimatedCompressedSize() >= batchMaxCompressedBytes || bulk.getRawSize() >= maxBytes
+                        || bulk.getLogs().size() >= batchMaxCount) {
+                    break;
+                }
+            }
+        }
+        return bulk;
+    }
+
+    /**
+     * @param maxBulks how many bulks to send before returning, even if logs are left
+     * @return false if a bulk failed to send and was returned to the queue
+     */
+    private boolean drainQueue(int maxBulks) {
         debug("Attempting to drain queue");
         if (!logsQueue.isEmpty()) {
-            while (!logsQueue.isEmpty()) {
-                List<FormattedLogMessage> logsList = dequeueUpToMaxBatchSize();
+            for (int bulks = 0; bulks < maxBulks && !logsQueue.isEmpty(); bulks++) {
+                List<FormattedLogMessage> logsList;
+                byte[] compressedPayload = null;
+                long dequeueStart = telemetry != null ? System.nanoTime() : 0;
+                BulkAssemblyEvent assembly = null;
+                if (JfrEvents.isBulkAssemblyEnabled()) {
+                    assembly = new BulkAssemblyEvent();
+                    assembly.begin();
+                }
+                if (batchMaxCompressedBytes > 0) {
+                    CompressedBulk bulk = dequeueUpToMaxCompressedSize();
+                    logsList = bulk.getLogs();
+                    compressedPayload = bulk.finish();
+                } else {
+                    logsList = dequeueUpToMaxBatchSize();
+                }
+                if (logsList.isEmpty()) {
+                    // A parallel final drain took the last logs
+                    break;
+                }
+                long sendStart = System.nanoTime();
+                long bulkBytes = sizeInBytes(logsList);
+                if (assembly != null && assembly.shouldCommit()) {
+                    assembly.logs = logsList.size();
+                    assembly.bytes = bulkBytes;
+                    assembly.compressedBytes = compressedPayload != null ? compressedPayload.length : 0;
+                    assembly.commit();
+                }
+                Span span = null;
+                if (telemetry != null) {
+                    telemetry.onDequeued(sendStart - dequeueStart);
+                    span = telemetry.startBulkSpan(logsList.size(), bulkBytes);
+                }
+                int responseCode = 0;
                 try {
-                    httpsSyncSender.sendToLogzio(logsList);
+                    if (compressedPayload != null) {
+                        responseCode = httpsSyncSender.sendToLogzio(compressedPayload);
+                    } else {
+                        responseCode = httpsSyncSender.sendToLogzio(logsList);
+                    }
+                    drainedLogs.add(logsList.size());
+                    if (!flushWaiters.isEmpty()) {
+                        // Under steady logging the drain may go on for a while, don't keep flushes waiting for it
+                        completeFlushes(false);
+                    }
+                    if (pendingAcks.get() > 0) {
+                        completeAcks(logsList, responseCode == 200 ? DeliveryResult.DELIVERED
+                                : responseCode == 0 ? DeliveryResult.UNDELIVERED : DeliveryResult.REJECTED);
+                    }
+                    long sendNanos = System.nanoTime() - sendStart;
+                    long sendMillis = TimeUnit.NANOSECONDS.toMillis(sendNanos);
+                    if (responseCode == 200) {
+                        metrics.onBulkSent(countSentLogs(logsList), bulkBytes, sendMillis);
+                        recordLogLatencies(logsList);
+                    } else {
+                        metrics.onBulkFailed();
+                    }
+                    if (telemetry != null) {
+                        telemetry.onBulkSent(bulkBytes, sendNanos, responseCode);
+                        SenderTelemetry.endBulkSpan(span, responseCode, null);
+                    }
+                    if (adaptiveBatchController != null) {
+                        // A bulk the listener rejected or didn't answer says nothing good about the bulk size
+                        if (responseCode == 200) {
+                            adaptiveBatchController.onBulkSent(sendMillis, !logsQueue.isEmpty());
+                        } else {
+                            adaptiveBatchController.onBulkFailed();
+                        }
+                        metrics.onBatchLimits(getCurrentBatchMaxBytes(), getCurrentDrainIntervalMs());
+                    }
                 } catch (LogzioServerErrorException e) {
+                    metrics.onBulkFailed();
+                    if (telemetry != null) {
+                        telemetry.onBulkSent(bulkBytes, System.nanoTime() - sendStart, responseCode);
+                        SenderTelemetry.endBulkSpan(span, responseCode, e);
+                    }
+                    if (adaptiveBatchController != null) {
+                        adaptiveBatchController.onBulkFailed();
+                        metrics.onBatchLimits(getCurrentBatchMaxBytes(), getCurrentDrainIntervalMs());
+                    }
                     debug("Could not send log to logz.io: ", e);
                     debug("Will retry in the next interval");
 
                     // And lets return everything to the queue
-                    logsList.forEach((logMessage) -> {
-                        logsQueue.enqueue(logMessage.getMessage());
-                    });
+                    for (FormattedLogMessage log : logsList) {
+                        if (!logsQueue.offer(log)) {
+                            drainedLogs.increment();
+                            metrics.onDropped(DropReason.QUEUE_FULL);
+                            if (log instanceof AckedLogMessage) {
+                                completeAck((AckedLogMessage) log, DeliveryResult.UNDELIVERED);
+                            }
+                        }
+                    }
 
                     // Lets wait for a new interval, something is wrong in the server side
-                    break;
+                    return false;
                 }
                 if (Thread.interrupted()) {
                     debug("Stopping drainQueue to thread being interrupted");
@@ -278,6 +1118,55 @@ public class LogzioSender {
                 }
             }
         }
+        return true;
+    }
+
+    /**
+     * @return how many logs of the bulk were actually written to it, leaving out logs that were dropped on drain
+     */
+    private static int countSentLogs(List<FormattedLogMessage> bulk) {
+        int sent = 0;
+        for (FormattedLogMessage log : bulk) {
+            if (!log.isDroppedOnDrain()) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    private void recordLogLatencies(List<FormattedLogMessage> bulk) {
+        long ackTime = System.currentTimeMillis();
+        for (FormattedLogMessage log : bulk) {
+            long enqueueTime = log.getEnqueueTimeMillis();
+            if (enqueueTime > 0 && !log.isDroppedOnDrain()) {
+                long latencyMs = Math.max(0, ackTime - enqueueTime);
+                metrics.onLogAcked(latencyMs);
+                if (telemetry != null) {
+                    telemetry.onLogAcked(latencyMs);
+                }
+            }
+        }
+    }
+
+    private static long sizeInBytes(List<FormattedLogMessage> bulk) {
+        long size = 0;
+        for (FormattedLogMessage log : bulk) {
+            size += log.getSize();
+        }
+        return size;
+    }
+
+    private void completeAcks(List<FormattedLogMessage> bulk, DeliveryResult result) {
+        for (FormattedLogMessage log : bulk) {
+            if (log instanceof AckedLogMessage) {
+                completeAck((AckedLogMessage) log, result);
+            }
+        }
+    }
+
+    private void completeAck(AckedLogMessage log, DeliveryResult result) {
+        pendingAcks.decrementAndGet();
+        log.delivery.complete(result);
     }
 
     private void debug(String message) {
@@ -293,22 +1182,368 @@ public class LogzioSender {
     }
 
 
+    /**
+     * A pending {@link #flush()}. It first waits for the ingest stage to process the logs offered before the flush,
+     * then takes the number of enqueued logs as its target, and is flushed once that many logs left the queue.
+     */
+    private class FlushWaiter {
+        private final CompletableFuture<Void> flushed = new CompletableFuture<>();
+        private final long ingestTarget;
+        private long target = -1;
+
+        FlushWaiter(long ingestTarget) {
+            this.ingestTarget = ingestTarget;
+            if (ingestTarget == 0) {
+                target = metrics.getEnqueuedLogs();
+            }
+        }
+
+        synchronized boolean isFlushed() {
+            if (target < 0 && ingestStage.getProcessedCount() >= ingestTarget) {
+                target = metrics.getEnqueuedLogs();
+            }
+            return target >= 0 && drainedLogs.sum() >= target;
+        }
+    }
+
+    /**
+     * A log in the in-memory queue whose delivery is reported back to the caller of sendWithAck.
+     */
+    private static class AckedLogMessage extends FormattedLogMessage {
+        private final CompletableFuture<DeliveryResult> delivery;
+
+        AckedLogMessage(byte[] message, CompletableFuture<DeliveryResult> delivery) {
+            super(message);
+            this.delivery = delivery;
+        }
+    }
+
+    /**
+     * A log kept as a JsonObject in the in-memory queue, serialized when it is first written to a bulk.
+     * The bytes are kept from then on, so a bulk that is retried or returned to the queue is not serialized,
+     * truncated or counted again.
+     */
+    private class SerializeOnDrainLogMessage extends FormattedLogMessage {
+        private final int estimatedSize;
+        private JsonObject jsonMessage;
+        private byte[] serialized;
+
+        SerializeOnDrainLogMessage(JsonObject jsonMessage) {
+            super(null);
+            this.jsonMessage = jsonMessage;
+            this.estimatedSize = estimateSize(jsonMessage) + (staticFields != null ? staticFields.size() : 0);
+        }
+
+        @Override
+        public byte[] getMessage() {
+            return serialize();
+        }
+
+        @Override
+        public int getSize() {
+            return estimatedSize;
+        }
+
+        @Override
+        boolean writeTo(OutputStream os) throws IOException {
+            byte[] log = serialize();
+            if (log.length == 0) {
+                return false;
+            }
+            os.write(log);
+            return true;
+        }
+
+        @Override
+        boolean isDroppedOnDrain() {
+            return serialized != null && serialized.length == 0;
+        }
+
+        private byte[] serialize() {
+            if (serialized == null) {
+                LogEvent logEvent = drainLogEvents.get();
+                logEvent.reset();
+                logEvent.fields(jsonMessage);
+                if (staticFields != null) {
+                    staticFields.appendTo(logEvent);
+                }
+                logEvent.seal();
+                serialized = fitToSizeLimits(logEvent) ? logEvent.toByteArray() : new byte[0];
+                jsonMessage = null;
+            }
+            return serialized;
+        }
+    }
+
+    /**
+     * Estimates the serialized size of a JSON element by the UTF-8 length of its strings, without encoding it.
+     */
+    static int estimateSize(JsonElement element) {
+        if (element.isJsonObject()) {
+            int size = 2;
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                size += utf8Length(member.getKey()) + 4 + estimateSize(member.getValue());
+            }
+            return size;
+        }
+        if (element.isJsonArray()) {
+            int size = 2;
+            for (JsonElement item : element.getAsJsonArray()) {
+                size += estimateSize(item) + 1;
+            }
+            return size;
+        }
+        if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+            return utf8Length(element.getAsString()) + 2;
+        }
+        return 8;
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                // A surrogate pair is 4 bytes, 2 for each of its chars
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
     public static class Builder {
         private boolean debug = false;
         private int drainTimeoutSec = 5;
         private SenderStatusReporter reporter;
         private ScheduledExecutorService tasksExecutor;
+        private boolean ownsTasksExecutor = false;
         private InMemoryQueue.Builder inMemoryQueueBuilder;
         private DiskQueue.Builder diskQueueBuilder;
         private HttpsRequestConfiguration httpsRequestConfiguration;
         private String exceedMaxSizeAction = "cut";
         private boolean withOpentelemetryContext = true;
+        private int ingestThreads = 0;
+        private int ingestBufferSize = 8192;
+        private int lingerMs = -1;
+        private Integer batchMaxBytes;
+        private int batchMaxCount = Integer.MAX_VALUE;
+        private int batchMaxCompressedBytes = 0;
+        private boolean adaptiveBatching = false;
+        private int adaptiveLatencyTargetMs = 1000;
+        private LogzioSenderRegistry registry;
+        private boolean virtualThreads = false;
+        private int dedupWindowMs = 0;
+        private String[] dedupKeyFields = {"message"};
+        private int dedupTableSize = 4096;
+        private final Map<String, Double> samplingRates = new HashMap<>();
+        private Set<String> alwaysKeepLevels = new HashSet<>(Arrays.asList("ERROR", "FATAL"));
+        private String rateLimitKeyField = "logger";
+        private int rateLimitPerSecond = 0;
+        private String levelField = LogSampler.LEVEL_FIELD;
+        private int samplingTailWindowMs = 0;
+        private Map<String, String> staticFields = Collections.emptyMap();
+        private boolean jmxMetrics = false;
+        private OpenTelemetry openTelemetry;
+        private boolean traceBulks = false;
 
         public Builder setWithOpentelemetryContext(boolean withOpentelemetryContext) {
             this.withOpentelemetryContext = withOpentelemetryContext;
             return this;
         }
 
+        /**
+         * @param ingestThreads number of sender threads that serialize, validate and enqueue logs handed over by send().
+         *                      0 (the default) does this work on the calling thread.
+         */
+        public Builder setIngestThreads(int ingestThreads) {
+            this.ingestThreads = ingestThreads;
+            return this;
+        }
+
+        public Builder setIngestBufferSize(int ingestBufferSize) {
+            this.ingestBufferSize = ingestBufferSize;
+            return this;
+        }
+
+        /**
+         * @param lingerMs how long a log may wait for its bulk to fill up before it is sent.
+         *                 After a failed bulk the next drain waits drainTimeoutSec, however many logs come in.
+         *                 A negative value (the default) drains the queue every drainTimeoutSec instead.
+         */
+        public Builder setLingerMs(int lingerMs) {
+            this.lingerMs = lingerMs;
+            return this;
+        }
+
+        public Builder setBatchMaxBytes(int batchMaxBytes) {
+            this.batchMaxBytes = batchMaxBytes;
+            return this;
+        }
+
+        public Builder setBatchMaxCount(int batchMaxCount) {
+            this.batchMaxCount = batchMaxCount;
+            return this;
+        }
+
+        /**
+         * @param batchMaxCompressedBytes when compressRequests is enabled, logs are compressed as they are dequeued and the bulk
+         *                                is sent once its compressed size reaches this target, or batchMaxBytes are uncompressed.
+         *                                Unless batchMaxBytes is set, it is then raised from 3 MB to the 10 MB listener limit,
+         *                                so a target above about a tenth of batchMaxBytes is only reached by logs that
+         *                                compress better than 10:1. 0 (the default) limits bulks by their uncompressed size only.
+         */
+        public Builder setBatchMaxCompressedBytes(int batchMaxCompressedBytes) {
+            this.batchMaxCompressedBytes = batchMaxCompressedBytes;
+            return this;
+        }
+
+        /**
+         * @param adaptiveBatching halve the bulk size (down to 64 KB) and double the drain interval on slow or failed bulks,
+         *                         and grow the bulk size back (up to batchMaxBytes, where it starts) and shorten the drain
+         *                         interval (down to 100ms) while there is a backlog and bulks are sent within the latency target.
+         *                         The interval only adapts when lingerMs is not set.
+         */
+        public Builder setAdaptiveBatching(boolean adaptiveBatching) {
+            this.adaptiveBatching = adaptiveBatching;
+            return this;
+        }
+
+        public Builder setAdaptiveLatencyTargetMs(int adaptiveLatencyTargetMs) {
+            this.adaptiveLatencyTargetMs = adaptiveLatencyTargetMs;
+            return this;
+        }
+
+        /**
+         * @param registry shares its drain threads, connection limit and compressors with the other senders that use it.
+         *                 Its drain threads are used when no tasks executor is set.
+         */
+        public Builder setRegistry(LogzioSenderRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * @param virtualThreads run drains and requests on virtual threads, so slow listeners don't hold platform threads.
+         *                       The tasks executor, or a single scheduler thread when none is set, only keeps time.
+         *                       Needs Java 21 or newer, on older versions the sender warns and drains on the tasks executor.
+         */
+        public Builder setVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * @param dedupWindowMs send only the first of the logs with the same key fields within this window, and then one summary
+         *                      of the repeats with repeat_count, first_timestamp and last_timestamp fields.
+         *                      0 (the default) sends every log. Only applies to logs sent as a JsonObject.
+         */
+        public Builder setDedupWindowMs(int dedupWindowMs) {
+            this.dedupWindowMs = dedupWindowMs;
+            return this;
+        }
+
+        public Builder setDedupKeyFields(String... dedupKeyFields) {
+            this.dedupKeyFields = dedupKeyFields;
+            return this;
+        }
+
+        /**
+         * @param dedupTableSize how many distinct keys are tracked at once, the key whose window started first makes room for a new one
+         */
+        public Builder setDedupTableSize(int dedupTableSize) {
+            this.dedupTableSize = dedupTableSize;
+            return this;
+        }
+
+        /**
+         * @param level        a value of the level field, compared case insensitively
+         * @param samplingRate the share of the logs of this level that are sent, between 0 and 1.
+         *                     Levels without a rate are all sent. Only applies to logs sent as a JsonObject.
+         */
+        public Builder setSamplingRate(String level, double samplingRate) {
+            this.samplingRates.put(level, samplingRate);
+            return this;
+        }
+
+        /**
+         * @param levelField the field with the level of a log, that sampling and alwaysKeepLevels are looked up by,
+         *                   loglevel by default
+         */
+        public Builder setLevelField(String levelField) {
+            this.levelField = levelField;
+            return this;
+        }
+
+        /**
+         * @param alwaysKeepLevels levels that are never sampled or rate limited, ERROR and FATAL by default
+         */
+        public Builder setAlwaysKeepLevels(String... alwaysKeepLevels) {
+            this.alwaysKeepLevels = new HashSet<>(Arrays.asList(alwaysKeepLevels));
+            return this;
+        }
+
+        /**
+         * @param rateLimitPerSecond how many logs per second are sent for each value of the rate limit key field,
+         *                           with a burst of one second. 0 (the default) doesn't limit.
+         */
+        public Builder setRateLimitPerSecond(int rateLimitPerSecond) {
+            this.rateLimitPerSecond = rateLimitPerSecond;
+            return this;
+        }
+
+        public Builder setRateLimitKeyField(String rateLimitKeyField) {
+            this.rateLimitKeyField = rateLimitKeyField;
+            return this;
+        }
+
+        /**
+         * @param samplingTailWindowMs how long logs sampled out by their level are kept, so a log of an always kept level
+         *                             sends them along: the ones of its trace, or the ones without a trace id.
+         *                             Up to 1000 logs are kept. 0 (the default) keeps none.
+         */
+        public Builder setSamplingTailWindowMs(int samplingTailWindowMs) {
+            this.samplingTailWindowMs = samplingTailWindowMs;
+            return this;
+        }
+
+        /**
+         * @param staticFields fields added to every log, such as host, env or version. They are encoded once when the
+         *                     sender is created and copied into each log as it is serialized, and count towards its size limits.
+         *                     Logs should not carry fields with the same names.
+         */
+        public Builder setStaticFields(Map<String, String> staticFields) {
+            this.staticFields = new LinkedHashMap<>(staticFields);
+            return this;
+        }
+
+        /**
+         * @param jmxMetrics register the sender's {@link SenderMetrics} as an MBean named
+         *                   io.logz.sender:type=SenderMetrics,logzioType=&lt;type&gt;,id=&lt;n&gt; while the sender runs
+         */
+        public Builder setJmxMetrics(boolean jmxMetrics) {
+            this.jmxMetrics = jmxMetrics;
+            return this;
+        }
+
+        /**
+         * @param openTelemetry reports queue depth, throughput and latencies of the sender to the meter provider of this instance.
+         *                      null (the default) reports nothing and costs nothing.
+         */
+        public Builder setOpenTelemetry(OpenTelemetry openTelemetry) {
+            this.openTelemetry = openTelemetry;
+            return this;
+        }
+
+        /**
+         * @param traceBulks also start a span for each bulk, when an OpenTelemetry instance is set
+         */
+        public Builder setTraceBulks(boolean traceBulks) {
+            this.traceBulks = traceBulks;
+            return this;
+        }
+
         public Builder setExceedMaxSizeAction(String exceedMaxSizeAction) {
             this.exceedMaxSizeAction = exceedMaxSizeAction;
             return this;
@@ -363,16 +1598,17 @@ public class LogzioSender {
         }
 
         public LogzioSender build() throws LogzioParameterErrorException, IOException {
-            return getLogzioSender(
-                    httpsRequestConfiguration,
-                    drainTimeoutSec,
-                    debug,
-                    reporter,
-                    tasksExecutor,
-                    getLogsQueue(),
-                    exceedMaxSizeAction,
-                    withOpentelemetryContext
-            );
+            if (tasksExecutor == null && registry != null) {
+                tasksExecutor = registry.getScheduler();
+            } else if (tasksExecutor == null && virtualThreads) {
+                ownsTasksExecutor = true;
+                tasksExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "logzio-sender-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return getLogzioSender(this, getLogsQueue());
         }
 
         private LogsQueue getLogsQueue() throws LogzioParameterErrorException, IOException {
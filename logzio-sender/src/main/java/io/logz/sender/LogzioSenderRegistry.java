@@ -0,0 +1,115 @@
+package io.logz.sender;
+
+import io.logz.sender.exceptions.LogzioParameterErrorException;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resources shared by many senders in one JVM: one drain scheduler, a limit on concurrent connections to the listener,
+ * and one pool of compressors. Senders that use a registry send one bulk per turn, so a busy token/type can't keep
+ * the shared drain threads from the others.
+ * Connections are kept alive in the JVM wide HttpURLConnection cache, so the connection limit also bounds how many
+ * of them are open.
+ */
+public class LogzioSenderRegistry implements Closeable {
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore connectionPermits;
+    private final DeflaterPool deflaterPool;
+    private final Set<LogzioSender> senders = ConcurrentHashMap.newKeySet();
+
+    private LogzioSenderRegistry(int drainThreads, int maxConnections) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(drainThreads, runnable -> {
+            Thread thread = new Thread(runnable, "logzio-sender-drain-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connectionPermits = new Semaphore(maxConnections, true);
+        this.deflaterPool = new DeflaterPool(maxConnections);
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    Semaphore getConnectionPermits() {
+        return connectionPermits;
+    }
+
+    DeflaterPool getDeflaterPool() {
+        return deflaterPool;
+    }
+
+    void register(LogzioSender sender) {
+        senders.add(sender);
+    }
+
+    void unregister(LogzioSender sender) {
+        senders.remove(sender);
+    }
+
+    /**
+     * Stops every sender that still uses this registry, all at once, so they share one final drain timeout,
+     * and then the shared drain threads.
+     * The senders are forgotten, so building a sender for the same token and type creates a new one.
+     */
+    @Override
+    public void close() {
+        List<LogzioSender> running = new ArrayList<>(senders);
+        ExecutorService stoppers = running.isEmpty() ? null : Executors.newFixedThreadPool(running.size());
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(LogzioSender.FINAL_DRAIN_TIMEOUT_SEC);
+            List<CompletableFuture<Void>> stops = new ArrayList<>();
+            for (LogzioSender sender : running) {
+                stops.add(CompletableFuture.runAsync(() -> sender.stop(Duration.ofNanos(Math.max(0, deadline - System.nanoTime()))), stoppers));
+            }
+            // Each stop gives up at the deadline on its own
+            CompletableFuture.allOf(stops.toArray(new CompletableFuture[0])).join();
+        } finally {
+            if (stoppers != null) {
+                stoppers.shutdown();
+            }
+            senders.clear();
+            scheduler.shutdownNow();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int drainThreads = 2;
+        private int maxConnections = 4;
+
+        public Builder setDrainThreads(int drainThreads) {
+            this.drainThreads = drainThreads;
+            return this;
+        }
+
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public LogzioSenderRegistry build() throws LogzioParameterErrorException {
+            if (drainThreads <= 0 || maxConnections <= 0) {
+                throw new LogzioParameterErrorException("drainThreads=" + drainThreads + " maxConnections=" + maxConnections,
+                        "both must be positive");
+            }
+            return new LogzioSenderRegistry(drainThreads, maxConnections);
+        }
+    }
+}
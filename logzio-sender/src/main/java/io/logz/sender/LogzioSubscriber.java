@@ -0,0 +1,97 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the logs of a publisher, and only requests as many as the queue has room for, in chunks of about a bulk.
+ * When the queue is full the subscriber stops requesting, and asks for more after the next drain freed some room.
+ * The size of a chunk is estimated from the first log of each chunk.
+ */
+class LogzioSubscriber implements Flow.Subscriber<JsonObject> {
+    private static final int DEFAULT_AVERAGE_LOG_SIZE = 512;
+
+    private final LogzioSender sender;
+    private final AtomicBoolean waitingForSpace = new AtomicBoolean(false);
+    private volatile Flow.Subscription subscription;
+    private volatile int averageLogSize = DEFAULT_AVERAGE_LOG_SIZE;
+    // Owned by one thread at a time, waitingForSpace hands them over to a drain
+    private long outstanding;
+    private boolean sampleNext;
+
+    LogzioSubscriber(LogzioSender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        sender.register(this);
+        requestChunk();
+    }
+
+    @Override
+    public void onNext(JsonObject jsonMessage) {
+        if (sampleNext) {
+            sampleNext = false;
+            averageLogSize = Math.max(1, (averageLogSize + LogzioSender.estimateSize(jsonMessage)) / 2);
+        }
+        sender.send(jsonMessage);
+        if (--outstanding <= 0) {
+            requestChunk();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        sender.unregister(this);
+    }
+
+    /**
+     * Flushes the sender, so the last logs of the publisher don't wait for the drain interval.
+     */
+    @Override
+    public void onComplete() {
+        sender.unregister(this);
+        sender.flush();
+    }
+
+    /**
+     * Called after each drain, which may have made room for the chunk this subscriber is waiting for.
+     */
+    void onDrained() {
+        if (waitingForSpace.compareAndSet(true, false)) {
+            requestChunk();
+        }
+    }
+
+    void cancel() {
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Called by whoever owns the demand: onNext once the last chunk arrived, or the drain that took over a waiting subscriber.
+     */
+    private void requestChunk() {
+        do {
+            long chunk = Math.min(sender.getBulkSizeInLogs(averageLogSize), sender.getRemainingQueueCapacity(averageLogSize));
+            if (chunk > 0) {
+                outstanding = chunk;
+                sampleNext = true;
+                subscription.request(chunk);
+                return;
+            }
+            waitingForSpace.set(true);
+            // A drain may have made room before we started waiting, without seeing us
+        } while (sender.getRemainingQueueCapacity(averageLogSize) > 0 && waitingForSpace.compareAndSet(true, false));
+    }
+}
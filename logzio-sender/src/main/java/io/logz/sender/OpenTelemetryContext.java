@@ -0,0 +1,58 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+
+import java.util.function.Supplier;
+
+/**
+ * Adds the current span's trace context, and the resource fields resolved once, to logs.
+ * LogzioSender only creates it when withOpentelemetryContext is enabled, so the OpenTelemetry classes
+ * are not loaded at all otherwise.
+ */
+class OpenTelemetryContext {
+    private final Supplier<Resource> resources;
+    private volatile String serviceName;
+
+    OpenTelemetryContext() {
+        this(Resource::getDefault);
+    }
+
+    OpenTelemetryContext(Supplier<Resource> resources) {
+        this.resources = resources;
+        refreshResource();
+    }
+
+    void refreshResource() {
+        serviceName = resources.get().getAttributes().get(ResourceAttributes.SERVICE_NAME);
+    }
+
+    void addTo(JsonObject jsonMessage) {
+        SpanContext spanContext = Span.current().getSpanContext();
+        if (spanContext.isValid()) {
+            jsonMessage.addProperty("trace_id", spanContext.getTraceId());
+            jsonMessage.addProperty("span_id", spanContext.getSpanId());
+            jsonMessage.addProperty("service_name", serviceName);
+        }
+    }
+
+    /**
+     * @return the trace id of the current span, or null when there is none
+     */
+    String currentTraceId() {
+        SpanContext spanContext = Span.current().getSpanContext();
+        return spanContext.isValid() ? spanContext.getTraceId() : null;
+    }
+
+    void addTo(LogEvent logEvent) {
+        SpanContext spanContext = Span.current().getSpanContext();
+        if (spanContext.isValid()) {
+            logEvent.field("trace_id", spanContext.getTraceId());
+            logEvent.field("span_id", spanContext.getSpanId());
+            logEvent.field("service_name", serviceName);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.logz.sender;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The wait before a failed request is retried, so its duration is the backoff.
+ */
+@Name("io.logz.sender.Retry")
+@Label("Retry")
+@Category({"Logz.io", "Sender"})
+@Description("Waiting to retry a request the listener did not accept")
+class RetryEvent extends jdk.jfr.Event {
+    @Label("Failed Attempt")
+    int attempt;
+
+    @Label("Response Code")
+    @Description("The HTTP status of the failed attempt, or 0 if it failed without one")
+    int responseCode;
+}
@@ -0,0 +1,273 @@
+package io.logz.sender;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of what a sender did with its logs since it was created.
+ * Counters are {@link LongAdder}s, so counting a log never contends with other threads.
+ * Queue depth is read from the queue when asked; the disk queue doesn't know its size in bytes and reports -1.
+ */
+public class SenderMetrics implements SenderMetricsMXBean {
+    private final LogsQueue logsQueue;
+    private final LongAdder enqueuedLogs = new LongAdder();
+    private final LongAdder[] droppedLogs = new LongAdder[DropReason.values().length];
+    private final LongAdder truncatedLogs = new LongAdder();
+    private final LongAdder sentLogs = new LongAdder();
+    private final LongAdder sentBulks = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder sentPayloadBytes = new LongAdder();
+    private final LongAdder failedBulks = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final Histogram bulkSizeBytes = new Histogram();
+    private final Histogram bulkSizeLogs = new Histogram();
+    private final Histogram sendLatencyMs = new Histogram();
+    private final Histogram requestLatencyMs = new Histogram();
+    private final Histogram logLatencyMs = new Histogram();
+    private volatile long currentBatchMaxBytes;
+    private volatile long currentDrainIntervalMs;
+
+    SenderMetrics(LogsQueue logsQueue) {
+        this.logsQueue = logsQueue;
+        for (int i = 0; i < droppedLogs.length; i++) {
+            droppedLogs[i] = new LongAdder();
+        }
+        JfrEvents.register();
+    }
+
+    void onEnqueued() {
+        enqueuedLogs.increment();
+    }
+
+    void onDropped(DropReason reason) {
+        droppedLogs[reason.ordinal()].increment();
+        if (JfrEvents.isDropEnabled()) {
+            DropEvent event = new DropEvent();
+            event.reason = reason.name();
+            event.commit();
+        }
+    }
+
+    void onTruncated() {
+        truncatedLogs.increment();
+    }
+
+    /**
+     * @param bytes      the uncompressed size of the logs
+     * @param sendMillis how long sending the bulk took, including retries
+     */
+    void onBulkSent(int logs, long bytes, long sendMillis) {
+        sentLogs.add(logs);
+        sentBulks.increment();
+        sentBytes.add(bytes);
+        bulkSizeBytes.record(bytes);
+        bulkSizeLogs.record(logs);
+        sendLatencyMs.record(sendMillis);
+    }
+
+    /**
+     * @param latencyMs how long an accepted log took from being enqueued to being acknowledged by the listener
+     */
+    void onLogAcked(long latencyMs) {
+        logLatencyMs.record(latencyMs);
+    }
+
+    void onBulkFailed() {
+        failedBulks.increment();
+    }
+
+    /**
+     * @param payloadBytes the size of the request body, compressed when compressRequests is set
+     */
+    void onRequest(long payloadBytes, long requestNanos, boolean accepted) {
+        requestLatencyMs.record(TimeUnit.NANOSECONDS.toMillis(requestNanos));
+        if (accepted) {
+            sentPayloadBytes.add(payloadBytes);
+        }
+    }
+
+    void onRetry() {
+        retries.increment();
+    }
+
+    /**
+     * @param batchMaxBytes   the bulk size limit the next bulk is taken with
+     * @param drainIntervalMs the delay before the next scheduled drain
+     */
+    void onBatchLimits(long batchMaxBytes, long drainIntervalMs) {
+        currentBatchMaxBytes = batchMaxBytes;
+        currentDrainIntervalMs = drainIntervalMs;
+    }
+
+    @Override
+    public long getEnqueuedLogs() {
+        return enqueuedLogs.sum();
+    }
+
+    public long getDroppedLogs(DropReason reason) {
+        return droppedLogs[reason.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedLogs() {
+        Map<String, Long> dropped = new LinkedHashMap<>();
+        for (DropReason reason : DropReason.values()) {
+            dropped.put(reason.name(), getDroppedLogs(reason));
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getTruncatedLogs() {
+        return truncatedLogs.sum();
+    }
+
+    @Override
+    public long getSentLogs() {
+        return sentLogs.sum();
+    }
+
+    @Override
+    public long getSentBulks() {
+        return sentBulks.sum();
+    }
+
+    /**
+     * @return the uncompressed size of the logs that were sent
+     */
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    /**
+     * @return the size of the accepted request bodies, compressed when compressRequests is set
+     */
+    public long getSentPayloadBytes() {
+        return sentPayloadBytes.sum();
+    }
+
+    @Override
+    public long getFailedBulks() {
+        return failedBulks.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getQueuedLogs() {
+        return logsQueue.getQueuedLogs();
+    }
+
+    @Override
+    public long getQueuedBytes() {
+        return logsQueue.getQueuedBytes();
+    }
+
+    /**
+     * @return how long the oldest log in the queue has been waiting, 0 if the queue is empty or doesn't know
+     */
+    @Override
+    public long getOldestQueuedLogAgeMs() {
+        long oldest = logsQueue.getOldestEnqueueTimeMillis();
+        return oldest > 0 ? Math.max(0, System.currentTimeMillis() - oldest) : 0;
+    }
+
+    /**
+     * @return the size of the request bodies relative to the logs in them, 1 without compression
+     */
+    @Override
+    public double getCompressionRatio() {
+        long bytes = getSentBytes();
+        return bytes == 0 ? 1 : (double) getSentPayloadBytes() / bytes;
+    }
+
+    /**
+     * @return the current bulk size limit, which adaptive batching changes with the observed latency and backlog
+     */
+    @Override
+    public long getCurrentBatchMaxBytes() {
+        return currentBatchMaxBytes;
+    }
+
+    /**
+     * @return the current delay between scheduled drains, which adaptive batching changes with the observed latency and backlog
+     */
+    @Override
+    public long getCurrentDrainIntervalMs() {
+        return currentDrainIntervalMs;
+    }
+
+    public Histogram getBulkSizeBytes() {
+        return bulkSizeBytes;
+    }
+
+    public Histogram getBulkSizeLogs() {
+        return bulkSizeLogs;
+    }
+
+    /**
+     * @return how long bulks took to send, including retries
+     */
+    public Histogram getSendLatencyMs() {
+        return sendLatencyMs;
+    }
+
+    /**
+     * @return how long each request to the listener took
+     */
+    public Histogram getRequestLatencyMs() {
+        return requestLatencyMs;
+    }
+
+    /**
+     * @return how long accepted logs took from being enqueued to being acknowledged by the listener
+     */
+    public Histogram getLogLatencyMs() {
+        return logLatencyMs;
+    }
+
+    @Override
+    public long getBulkSizeBytesP50() {
+        return bulkSizeBytes.getPercentile(50);
+    }
+
+    @Override
+    public long getBulkSizeBytesP99() {
+        return bulkSizeBytes.getPercentile(99);
+    }
+
+    @Override
+    public long getSendLatencyMsP50() {
+        return sendLatencyMs.getPercentile(50);
+    }
+
+    @Override
+    public long getSendLatencyMsP99() {
+        return sendLatencyMs.getPercentile(99);
+    }
+
+    @Override
+    public long getSendLatencyMsMax() {
+        return sendLatencyMs.getMax();
+    }
+
+    @Override
+    public long getRequestLatencyMsP99() {
+        return requestLatencyMs.getPercentile(99);
+    }
+
+    @Override
+    public long getLogLatencyMsP50() {
+        return logLatencyMs.getPercentile(50);
+    }
+
+    @Override
+    public long getLogLatencyMsP99() {
+        return logLatencyMs.getPercentile(99);
+    }
+}
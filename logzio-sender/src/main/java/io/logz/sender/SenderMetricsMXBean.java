@@ -0,0 +1,50 @@
+package io.logz.sender;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link SenderMetrics}, registered when the sender is built with jmxMetrics.
+ */
+public interface SenderMetricsMXBean {
+    long getEnqueuedLogs();
+
+    Map<String, Long> getDroppedLogs();
+
+    long getTruncatedLogs();
+
+    long getSentLogs();
+
+    long getSentBulks();
+
+    long getFailedBulks();
+
+    long getRetries();
+
+    long getQueuedLogs();
+
+    long getQueuedBytes();
+
+    long getOldestQueuedLogAgeMs();
+
+    double getCompressionRatio();
+
+    long getCurrentBatchMaxBytes();
+
+    long getCurrentDrainIntervalMs();
+
+    long getBulkSizeBytesP50();
+
+    long getBulkSizeBytesP99();
+
+    long getSendLatencyMsP50();
+
+    long getSendLatencyMsP99();
+
+    long getSendLatencyMsMax();
+
+    long getRequestLatencyMsP99();
+
+    long getLogLatencyMsP50();
+
+    long getLogLatencyMsP99();
+}
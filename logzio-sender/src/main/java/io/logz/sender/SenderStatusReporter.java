@@ -14,4 +14,24 @@ public interface SenderStatusReporter {
     public void info(String msg);
 
     public void info(String msg, Throwable throwable);
+
+    /**
+     * Receives the events counted since the last report, at most once per reporting interval for each event.
+     * The default formats them into a message at the event's level; override it to use the numbers without formatting.
+     *
+     * @param count how many times the event happened
+     * @param value the number the event carries, summed or latest as {@link StatusEvent#isSummed()} tells
+     */
+    default void onStatusEvent(StatusEvent event, long count, long value) {
+        switch (event.getLevel()) {
+            case ERROR:
+                error(event.format(count, value));
+                break;
+            case WARNING:
+                warning(event.format(count, value));
+                break;
+            default:
+                info(event.format(count, value));
+        }
+    }
 }
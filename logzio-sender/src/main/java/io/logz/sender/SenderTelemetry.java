@@ -0,0 +1,179 @@
+package io.logz.sender;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Reports the sender's own pipeline to an OpenTelemetry meter, and optionally a span per bulk.
+ * Counters and queue depth are observed from {@link SenderMetrics} when the meter collects, so logging pays nothing for them;
+ * only the histograms and spans are recorded as bulks are sent.
+ * LogzioSender only creates it when an OpenTelemetry instance is set, so the metrics classes are not loaded at all otherwise.
+ */
+class SenderTelemetry {
+    static final String INSTRUMENTATION_NAME = "io.logz.sender";
+    static final AttributeKey<String> TYPE_KEY = AttributeKey.stringKey("logzio.type");
+    static final AttributeKey<String> REASON_KEY = AttributeKey.stringKey("logzio.drop_reason");
+    static final AttributeKey<Long> STATUS_CODE_KEY = AttributeKey.longKey("http.response.status_code");
+    private static final String BULK_LOGS_ATTRIBUTE = "logzio.bulk.logs";
+    private static final String BULK_BYTES_ATTRIBUTE = "logzio.bulk.bytes";
+
+    private final Meter meter;
+    private final Tracer tracer;
+    private final SenderMetrics metrics;
+    private final String logzioType;
+    private final Attributes typeAttributes;
+    private final Attributes[] dropAttributes = new Attributes[DropReason.values().length];
+    private final LongHistogram dequeueDuration;
+    private final LongHistogram bulkDuration;
+    private final LongHistogram bulkSize;
+    private final LongHistogram requestDuration;
+    private final LongHistogram logLatency;
+    private final List<AutoCloseable> observers = new ArrayList<>();
+
+    /**
+     * @param traceBulks also start a span for each bulk that is sent
+     */
+    SenderTelemetry(OpenTelemetry openTelemetry, SenderMetrics metrics, String logzioType, boolean traceBulks) {
+        this.meter = openTelemetry.getMeter(INSTRUMENTATION_NAME);
+        this.tracer = traceBulks ? openTelemetry.getTracer(INSTRUMENTATION_NAME) : null;
+        this.metrics = metrics;
+        this.logzioType = String.valueOf(logzioType);
+        this.typeAttributes = Attributes.of(TYPE_KEY, this.logzioType);
+        for (DropReason reason : DropReason.values()) {
+            dropAttributes[reason.ordinal()] = Attributes.of(TYPE_KEY, this.logzioType, REASON_KEY, reason.name());
+        }
+        this.dequeueDuration = histogram("logzio.sender.dequeue.duration", "ms", "How long taking a bulk out of the queue took");
+        this.bulkDuration = histogram("logzio.sender.bulk.duration", "ms", "How long sending a bulk took, including retries");
+        this.bulkSize = histogram("logzio.sender.bulk.size", "By", "The uncompressed size of the bulks that were sent");
+        this.requestDuration = histogram("logzio.sender.request.duration", "ms", "How long each request to the listener took");
+        this.logLatency = histogram("logzio.sender.log.latency", "ms", "How long accepted logs took from being enqueued to being acknowledged");
+    }
+
+    /**
+     * Registers the callbacks of the observed counters and gauges, until {@link #stop()}.
+     */
+    synchronized void start() {
+        if (!observers.isEmpty()) {
+            return;
+        }
+        observers.add(gauge("logzio.sender.queue.logs", "{log}", "Logs waiting in the queue", metrics::getQueuedLogs));
+        observers.add(gauge("logzio.sender.queue.size", "By", "Bytes of logs waiting in the queue", metrics::getQueuedBytes));
+        observers.add(gauge("logzio.sender.queue.oldest_age", "ms", "How long the oldest log in the queue has been waiting", metrics::getOldestQueuedLogAgeMs));
+        observers.add(gauge("logzio.sender.batch.max_size", "By", "The current bulk size limit", metrics::getCurrentBatchMaxBytes));
+        observers.add(gauge("logzio.sender.drain.interval", "ms", "The current delay between scheduled drains", metrics::getCurrentDrainIntervalMs));
+        observers.add(counter("logzio.sender.logs.enqueued", "{log}", "Logs added to the queue", metrics::getEnqueuedLogs));
+        observers.add(counter("logzio.sender.logs.sent", "{log}", "Logs accepted by the listener", metrics::getSentLogs));
+        observers.add(counter("logzio.sender.bytes.sent", "By", "Uncompressed bytes of logs accepted by the listener", metrics::getSentBytes));
+        observers.add(counter("logzio.sender.bulks.sent", "{bulk}", "Bulks accepted by the listener", metrics::getSentBulks));
+        observers.add(counter("logzio.sender.bulks.failed", "{bulk}", "Bulks the listener did not accept", metrics::getFailedBulks));
+        observers.add(counter("logzio.sender.retries", "{request}", "Requests that were retried", metrics::getRetries));
+        observers.add(meter.counterBuilder("logzio.sender.logs.dropped")
+                .setUnit("{log}")
+                .setDescription("Logs that were not sent, by reason")
+                .buildWithCallback(this::observeDroppedLogs));
+    }
+
+    synchronized void stop() {
+        for (AutoCloseable observer : observers) {
+            try {
+                observer.close();
+            } catch (Exception ignored) {
+            }
+        }
+        observers.clear();
+    }
+
+    void onDequeued(long dequeueNanos) {
+        dequeueDuration.record(TimeUnit.NANOSECONDS.toMillis(dequeueNanos), typeAttributes);
+    }
+
+    /**
+     * @param responseCode the HTTP status of the last attempt, or 0 if there was none
+     */
+    void onBulkSent(long bytes, long sendNanos, int responseCode) {
+        bulkDuration.record(TimeUnit.NANOSECONDS.toMillis(sendNanos), Attributes.of(TYPE_KEY, logzioType, STATUS_CODE_KEY, (long) responseCode));
+        if (responseCode == 200) {
+            bulkSize.record(bytes, typeAttributes);
+        }
+    }
+
+    void onLogAcked(long latencyMs) {
+        logLatency.record(latencyMs, typeAttributes);
+    }
+
+    void onRequest(long requestNanos, int responseCode) {
+        requestDuration.record(TimeUnit.NANOSECONDS.toMillis(requestNanos), Attributes.of(TYPE_KEY, logzioType, STATUS_CODE_KEY, (long) responseCode));
+    }
+
+    /**
+     * @return the span of a bulk, or null when bulks are not traced
+     */
+    Span startBulkSpan(int logs, long bytes) {
+        if (tracer == null) {
+            return null;
+        }
+        return tracer.spanBuilder("logzio.sender.bulk")
+                .setNoParent()
+                .setSpanKind(SpanKind.CLIENT)
+                .setAttribute(TYPE_KEY.getKey(), logzioType)
+                .setAttribute(BULK_LOGS_ATTRIBUTE, logs)
+                .setAttribute(BULK_BYTES_ATTRIBUTE, bytes)
+                .startSpan();
+    }
+
+    static void endBulkSpan(Span span, int responseCode, Throwable failure) {
+        if (span == null) {
+            return;
+        }
+        span.setAttribute(STATUS_CODE_KEY.getKey(), responseCode);
+        if (failure != null) {
+            span.recordException(failure);
+        }
+        if (failure != null || responseCode != 200) {
+            span.setStatus(StatusCode.ERROR);
+        }
+        span.end();
+    }
+
+    private void observeDroppedLogs(ObservableLongMeasurement measurement) {
+        for (DropReason reason : DropReason.values()) {
+            measurement.record(metrics.getDroppedLogs(reason), dropAttributes[reason.ordinal()]);
+        }
+    }
+
+    private LongHistogram histogram(String name, String unit, String description) {
+        return meter.histogramBuilder(name).setUnit(unit).setDescription(description).ofLongs().build();
+    }
+
+    private AutoCloseable counter(String name, String unit, String description, LongSupplier value) {
+        return meter.counterBuilder(name).setUnit(unit).setDescription(description).buildWithCallback(observe(value));
+    }
+
+    private AutoCloseable gauge(String name, String unit, String description, LongSupplier value) {
+        return meter.gaugeBuilder(name).setUnit(unit).setDescription(description).ofLongs().buildWithCallback(observe(value));
+    }
+
+    private Consumer<ObservableLongMeasurement> observe(LongSupplier value) {
+        return measurement -> {
+            long current = value.getAsLong();
+            // Queues that can't tell their size report -1, which is no measurement at all
+            if (current >= 0) {
+                measurement.record(current, typeAttributes);
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package io.logz.sender;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Fields that are the same for every log of a sender, encoded once to a UTF-8 fragment of JSON members
+ * that is copied into each log as it is serialized, before its size limits are checked.
+ */
+class StaticFields {
+    private final byte[] fragment;
+
+    StaticFields(Map<String, String> fields) {
+        LogEvent logEvent = new LogEvent();
+        fields.forEach(logEvent::field);
+        logEvent.seal();
+        byte[] object = logEvent.toByteArray();
+        this.fragment = Arrays.copyOfRange(object, 1, object.length - 1);
+    }
+
+    /**
+     * @return how many bytes the fields add to a log that already has members
+     */
+    int size() {
+        return fragment.length + 1;
+    }
+
+    void appendTo(LogEvent logEvent) {
+        logEvent.endNestedObjects();
+        logEvent.rawFields(fragment);
+    }
+
+    /**
+     * @param log an encoded JSON object, possibly followed by whitespace
+     * @return a copy of the log with the fields added before its closing brace
+     */
+    byte[] appendTo(byte[] log) {
+        int close = log.length - 1;
+        while (close > 0 && log[close] != '}') {
+            close--;
+        }
+        int last = close - 1;
+        while (last > 0 && isWhitespace(log[last])) {
+            last--;
+        }
+        boolean empty = log[last] == '{';
+        byte[] withFields = new byte[close + (empty ? 0 : 1) + fragment.length + 1];
+        System.arraycopy(log, 0, withFields, 0, close);
+        int position = close;
+        if (!empty) {
+            withFields[position++] = ',';
+        }
+        System.arraycopy(fragment, 0, withFields, position, fragment.length);
+        withFields[withFields.length - 1] = '}';
+        return withFields;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
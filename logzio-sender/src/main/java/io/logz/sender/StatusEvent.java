@@ -0,0 +1,46 @@
+package io.logz.sender;
+
+/**
+ * What a sender reports to its {@link SenderStatusReporter} as it happens, aggregated by {@link StatusEvents}.
+ * Each event carries how many times it happened in the reporting interval, and one number:
+ * summed over the interval, or the latest one.
+ */
+public enum StatusEvent {
+    /** Bulks the listener accepted, with their total size in bytes. */
+    BULK_SENT(Level.INFO, true, "Successfully sent %d bulks to logz.io, size: %d bytes"),
+    /** Logs the in memory queue dropped, with its capacity in MB. */
+    QUEUE_MEMORY_THRESHOLD(Level.WARNING, false, "Logz.io: Dropping logs - dropped %d logs, as we crossed the memory threshold of %d MB"),
+    /** Logs the in memory queue dropped, with its limit of logs. */
+    QUEUE_COUNT_THRESHOLD(Level.WARNING, false, "Logz.io: Dropping logs - dropped %d logs, as we crossed the logs counter threshold of %d logs");
+
+    public enum Level {
+        INFO,
+        WARNING,
+        ERROR
+    }
+
+    private final Level level;
+    private final boolean summed;
+    private final String format;
+
+    StatusEvent(Level level, boolean summed, String format) {
+        this.level = level;
+        this.summed = summed;
+        this.format = format;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return true if the value of the event is summed over the interval, false if it is the latest one
+     */
+    public boolean isSummed() {
+        return summed;
+    }
+
+    public String format(long count, long value) {
+        return String.format(format, count, value);
+    }
+}
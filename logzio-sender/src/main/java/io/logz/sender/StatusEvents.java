@@ -0,0 +1,87 @@
+package io.logz.sender;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts {@link StatusEvent}s and hands each type to the reporter at most once per interval, so an event that happens
+ * for every log, like a drop, costs a counter increment and no formatting.
+ * The first event of a type is reported right away; the ones that follow are reported together by the first event of
+ * that type after its interval ended, by {@link #reportDue()} once the events stopped coming, or by {@link #report()}.
+ */
+class StatusEvents {
+    static final long DEFAULT_INTERVAL_MS = 10_000;
+
+    private final SenderStatusReporter reporter;
+    private final long intervalNanos;
+    private final LongAdder[] counts = new LongAdder[StatusEvent.values().length];
+    private final AtomicLongArray values = new AtomicLongArray(StatusEvent.values().length);
+    private final AtomicLongArray nextReportNanos = new AtomicLongArray(StatusEvent.values().length);
+
+    StatusEvents(SenderStatusReporter reporter) {
+        this(reporter, DEFAULT_INTERVAL_MS);
+    }
+
+    StatusEvents(SenderStatusReporter reporter, long intervalMs) {
+        this.reporter = reporter;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        long now = System.nanoTime();
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+            nextReportNanos.set(i, now);
+        }
+    }
+
+    void record(StatusEvent event, long value) {
+        int i = event.ordinal();
+        counts[i].increment();
+        if (event.isSummed()) {
+            values.getAndAdd(i, value);
+        } else {
+            values.set(i, value);
+        }
+        if (claimReport(i, System.nanoTime())) {
+            report(event);
+        }
+    }
+
+    /**
+     * Reports the event types whose interval ended and that were counted since, meant to be called every interval
+     * so the last events of a type are reported even when no more come.
+     */
+    void reportDue() {
+        long now = System.nanoTime();
+        for (StatusEvent event : StatusEvent.values()) {
+            int i = event.ordinal();
+            if (counts[i].sum() > 0 && claimReport(i, now)) {
+                report(event);
+            }
+        }
+    }
+
+    /**
+     * Reports the events counted since the last report, if any.
+     */
+    void report() {
+        for (StatusEvent event : StatusEvent.values()) {
+            report(event);
+        }
+    }
+
+    private boolean claimReport(int i, long now) {
+        long next = nextReportNanos.get(i);
+        return now - next >= 0 && nextReportNanos.compareAndSet(i, next, now + intervalNanos);
+    }
+
+    private void report(StatusEvent event) {
+        if (reporter == null) {
+            return;
+        }
+        int i = event.ordinal();
+        long count = counts[i].sumThenReset();
+        if (count > 0) {
+            reporter.onStatusEvent(event, count, event.isSummed() ? values.getAndSet(i, 0) : values.get(i));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.logz.sender;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveBatchControllerTest {
+    private static final int MAX_BATCH_BYTES = 3 * 1024 * 1024;
+    private static final long MAX_INTERVAL_MS = 5000;
+
+    @Test
+    public void startsAtBatchMaxBytesAndBacksOffWhenSlow() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(MAX_BATCH_BYTES, MAX_INTERVAL_MS, 1000);
+        assertEquals(MAX_BATCH_BYTES, controller.getBatchMaxBytes());
+        assertEquals(MAX_INTERVAL_MS, controller.getDrainIntervalMs());
+
+        for (int i = 0; i < 100; i++) {
+            controller.onBulkSent(50, true);
+        }
+        assertEquals(MAX_BATCH_BYTES, controller.getBatchMaxBytes());
+        assertEquals(AdaptiveBatchController.MIN_DRAIN_INTERVAL_MS, controller.getDrainIntervalMs());
+
+        controller.onBulkSent(5000, true);
+        assertEquals(MAX_BATCH_BYTES / 2, controller.getBatchMaxBytes());
+        assertEquals(AdaptiveBatchController.MIN_DRAIN_INTERVAL_MS * 2, controller.getDrainIntervalMs());
+
+        for (int i = 0; i < 20; i++) {
+            controller.onBulkFailed();
+        }
+        assertEquals(AdaptiveBatchController.MIN_BATCH_BYTES, controller.getBatchMaxBytes());
+        assertEquals(MAX_INTERVAL_MS, controller.getDrainIntervalMs());
+
+        for (int i = 0; i < 10; i++) {
+            controller.onBulkSent(50, true);
+        }
+        assertTrue(controller.getBatchMaxBytes() > AdaptiveBatchController.MIN_BATCH_BYTES);
+        assertTrue(controller.getDrainIntervalMs() < MAX_INTERVAL_MS);
+    }
+
+    @Test
+    public void relaxesIntervalWhenIdle() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(MAX_BATCH_BYTES, MAX_INTERVAL_MS, 1000);
+        for (int i = 0; i < 10; i++) {
+            controller.onBulkSent(50, true);
+        }
+        long busyInterval = controller.getDrainIntervalMs();
+        controller.onBulkSent(50, false);
+        assertTrue(controller.getDrainIntervalMs() > busyInterval);
+    }
+}
@@ -0,0 +1,182 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import io.logz.sender.exceptions.LogzioParameterErrorException;
+import io.logz.test.MockLogzioBulkListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static io.logz.sender.LogzioTestSenderUtil.createJsonMessage;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Fails when the bytes allocated by the calling thread for each log or bulk go over the budgets in
+ * allocation-budgets.properties. Each measurement is repeated and the lowest average is compared,
+ * so class loading, JIT and one-off growth of internal tables don't count.
+ */
+public class AllocationBudgetTest {
+    private static final Logger logger = LoggerFactory.getLogger(AllocationBudgetTest.class);
+    private static final String BUDGETS_FILE = "/allocation-budgets.properties";
+    private static final int ROUNDS = 5;
+    private static final int LOGS_PER_ROUND = 20000;
+    private static final int BULKS_PER_ROUND = 50;
+    private static final int LOGS_PER_BULK = 100;
+
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final Properties budgets = new Properties();
+    private MockLogzioBulkListener mockListener;
+    private ScheduledExecutorService tasks;
+
+    @BeforeEach
+    public void startListener() throws Exception {
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "The JVM can't measure thread allocations");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        try (InputStream budgetsFile = AllocationBudgetTest.class.getResourceAsStream(BUDGETS_FILE)) {
+            budgets.load(budgetsFile);
+        }
+        mockListener = new MockLogzioBulkListener();
+        mockListener.setCountingOnly(true);
+        mockListener.start();
+        tasks = Executors.newScheduledThreadPool(1);
+    }
+
+    @AfterEach
+    public void stopListener() {
+        if (mockListener != null) {
+            mockListener.stop();
+        }
+        if (tasks != null) {
+            tasks.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sendJsonObjectStaysWithinBudget() throws Exception {
+        LogzioSender sender = createSender("sendJsonObjectStaysWithinBudget", false);
+        long perLog = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            JsonObject[] logs = new JsonObject[LOGS_PER_ROUND];
+            for (int i = 0; i < logs.length; i++) {
+                logs[i] = createJsonMessage("AllocationBudgetTest", "Allocation measured log " + i);
+            }
+            long before = allocatedBytes();
+            for (JsonObject log : logs) {
+                sender.send(log);
+            }
+            perLog = Math.min(perLog, (allocatedBytes() - before) / LOGS_PER_ROUND);
+            sender.clearQueue();
+        }
+        sender.stop();
+        assertWithinBudget("send.json.bytesPerLog", perLog);
+    }
+
+    @Test
+    public void sendBytesStaysWithinBudget() throws Exception {
+        LogzioSender sender = createSender("sendBytesStaysWithinBudget", false);
+        byte[][] logs = createByteLogs(LOGS_PER_ROUND);
+        long perLog = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (byte[] log : logs) {
+                sender.send(log);
+            }
+            perLog = Math.min(perLog, (allocatedBytes() - before) / LOGS_PER_ROUND);
+            sender.clearQueue();
+        }
+        sender.stop();
+        assertWithinBudget("send.bytes.bytesPerLog", perLog);
+    }
+
+    @Test
+    public void drainStaysWithinBudget() throws Exception {
+        assertWithinBudget("drain.bytesPerBulk", measureDrain("drainStaysWithinBudget", false));
+    }
+
+    @Test
+    public void compressedDrainStaysWithinBudget() throws Exception {
+        assertWithinBudget("drain.compressed.bytesPerBulk", measureDrain("compressedDrainStaysWithinBudget", true));
+    }
+
+    /**
+     * Only the draining is measured, the logs of each bulk are sent to the queue before it.
+     */
+    private long measureDrain(String token, boolean compressRequests) throws Exception {
+        LogzioSender sender = createSender(token, compressRequests);
+        byte[][] logs = createByteLogs(LOGS_PER_BULK);
+        long perBulk = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocated = 0;
+            for (int bulk = 0; bulk < BULKS_PER_ROUND; bulk++) {
+                for (byte[] log : logs) {
+                    sender.send(log);
+                }
+                long before = allocatedBytes();
+                sender.drainQueueAndSend();
+                allocated += allocatedBytes() - before;
+            }
+            perBulk = Math.min(perBulk, allocated / BULKS_PER_ROUND);
+        }
+        sender.stop();
+        assertTrue(mockListener.getStats().getLogs() == (long) ROUNDS * BULKS_PER_ROUND * LOGS_PER_BULK,
+                "Not all bulks were accepted: " + mockListener.getStats());
+        return perBulk;
+    }
+
+    /**
+     * Senders are shared by token and type, so each test needs a token of its own.
+     */
+    private LogzioSender createSender(String token, boolean compressRequests) throws LogzioParameterErrorException, IOException {
+        HttpsRequestConfiguration httpsRequestConfiguration = HttpsRequestConfiguration
+                .builder()
+                .setCompressRequests(compressRequests)
+                .setLogzioToken(token)
+                .setLogzioType("allocationBudgetTest")
+                .setLogzioListenerUrl("http://" + mockListener.getHost() + ":" + mockListener.getPort())
+                .build();
+        LogzioSender sender = LogzioSender
+                .builder()
+                .setWithOpentelemetryContext(false)
+                .setTasksExecutor(tasks)
+                // Only the test drains, on its own thread
+                .setDrainTimeoutSec(3600)
+                .setReporter(new LogzioTestStatusReporter(logger))
+                .setHttpsRequestConfiguration(httpsRequestConfiguration)
+                .withInMemoryQueue()
+                .endInMemoryQueue()
+                .build();
+        sender.start();
+        return sender;
+    }
+
+    private static byte[][] createByteLogs(int count) {
+        byte[][] logs = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            logs[i] = createJsonMessage("AllocationBudgetTest", "Allocation measured log " + i).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        return logs;
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void assertWithinBudget(String name, long allocated) {
+        long budget = Long.parseLong(budgets.getProperty(name));
+        logger.info("{} allocated {} bytes, the budget is {}", name, allocated, budget);
+        assertTrue(allocated <= budget, name + " allocated " + allocated + " bytes, over its budget of " + budget
+                + " in " + BUDGETS_FILE.substring(1));
+    }
+}
@@ -0,0 +1,48 @@
+package io.logz.sender;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompressedBulkTest {
+
+    @Test
+    public void estimatesCompressedSizeWhileFilling() throws IOException {
+        Random random = new Random(7);
+        CompressedBulk bulk = new CompressedBulk(64 * 1024, new DeflaterPool(1));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            String log = "{\"message\":\"request " + random.nextInt(100000) + " served in " + random.nextInt(1000) + "ms\",\"logger\":\"test\"}";
+            bulk.add(new FormattedLogMessage(log.getBytes(StandardCharsets.UTF_8)));
+            expected.append(log).append('\n');
+        }
+        int estimate = bulk.estimatedCompressedSize();
+        byte[] payload = bulk.finish();
+
+        assertEquals(20000, bulk.getLogs().size());
+        assertEquals(expected.length(), bulk.getRawSize());
+        assertTrue(Math.abs(estimate - payload.length) < payload.length * 0.2, "estimate " + estimate + " actual " + payload.length);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            assertEquals(expected.toString(), new String(gzip.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void reusesPooledDeflaterBetweenBulks() throws IOException {
+        DeflaterPool pool = new DeflaterPool(1);
+        for (int i = 0; i < 3; i++) {
+            CompressedBulk bulk = new CompressedBulk(1024, pool);
+            bulk.add(new FormattedLogMessage(("{\"message\":\"bulk " + i + "\"}").getBytes(StandardCharsets.UTF_8)));
+            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bulk.finish()))) {
+                assertEquals("{\"message\":\"bulk " + i + "\"}\n", new String(gzip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static io.logz.sender.LogzioTestSenderUtil.createJsonMessage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeduplicatorTest {
+    private static final long WINDOW_MS = 1000;
+
+    @Test
+    public void collapsesRepeatsIntoOneSummary() {
+        Deduplicator deduplicator = new Deduplicator(new String[]{"message"}, WINDOW_MS, 16);
+        List<JsonObject> summaries = new ArrayList<>();
+
+        assertTrue(deduplicator.offer(createJsonMessage("dedup", "Connection refused"), 0, summaries::add));
+        assertTrue(deduplicator.offer(createJsonMessage("dedup", "Other error"), 5, summaries::add));
+        for (int i = 1; i <= 100; i++) {
+            assertFalse(deduplicator.offer(createJsonMessage("dedup", "Connection refused"), 10 + i, summaries::add));
+        }
+        assertTrue(summaries.isEmpty());
+
+        deduplicator.expire(WINDOW_MS + 1, summaries::add);
+        assertEquals(1, summaries.size());
+        JsonObject summary = summaries.get(0);
+        assertEquals("Connection refused", summary.get("message").getAsString());
+        assertEquals(100, summary.get(Deduplicator.REPEAT_COUNT_FIELD).getAsInt());
+        assertEquals(Instant.ofEpochMilli(11).toString(), summary.get(Deduplicator.FIRST_TIMESTAMP_FIELD).getAsString());
+        assertEquals(Instant.ofEpochMilli(110).toString(), summary.get(Deduplicator.LAST_TIMESTAMP_FIELD).getAsString());
+
+        // A new window starts with the log itself
+        assertTrue(deduplicator.offer(createJsonMessage("dedup", "Connection refused"), WINDOW_MS + 2, summaries::add));
+    }
+
+    @Test
+    public void evictsOldestKeyWhenTableIsFull() {
+        Deduplicator deduplicator = new Deduplicator(new String[]{"message", "logger"}, WINDOW_MS, 8);
+        List<JsonObject> summaries = new ArrayList<>();
+        deduplicator.offer(createJsonMessage("dedup", "First"), 0, summaries::add);
+        deduplicator.offer(createJsonMessage("dedup", "First"), 1, summaries::add);
+
+        for (int i = 0; i < 64; i++) {
+            assertTrue(deduplicator.offer(createJsonMessage("dedup", "Distinct " + i), 10 + i, summaries::add));
+        }
+        assertEquals(1, summaries.size());
+        assertEquals(1, summaries.get(0).get(Deduplicator.REPEAT_COUNT_FIELD).getAsInt());
+    }
+
+    @Test
+    public void keepsCountingKeysAfterOthersExpire() {
+        Deduplicator deduplicator = new Deduplicator(new String[]{"message"}, WINDOW_MS, 16);
+        List<JsonObject> summaries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(deduplicator.offer(createJsonMessage("dedup", "Early " + i), 0, summaries::add));
+        }
+        for (int i = 0; i < 6; i++) {
+            assertTrue(deduplicator.offer(createJsonMessage("dedup", "Late " + i), 600, summaries::add));
+        }
+
+        deduplicator.expire(WINDOW_MS + 100, summaries::add);
+        for (int i = 0; i < 6; i++) {
+            assertFalse(deduplicator.offer(createJsonMessage("dedup", "Late " + i), WINDOW_MS + 200, summaries::add), "Late " + i);
+        }
+        deduplicator.expireAll(summaries::add);
+        assertEquals(6, summaries.size());
+    }
+
+    @Test
+    public void summariesAreSentOutsideTheBucketLock() throws Exception {
+        Deduplicator deduplicator = new Deduplicator(new String[]{"message"}, WINDOW_MS, 8);
+        List<JsonObject> summaries = new ArrayList<>();
+        // Another thread offering the same key would wait for the bucket's lock if it was still held
+        Runnable offerFromOtherThread = () -> assertTrue(CompletableFuture
+                .supplyAsync(() -> deduplicator.offer(createJsonMessage("dedup", "Locked"), 0, summaries::add))
+                .orTimeout(5, TimeUnit.SECONDS).join() != null);
+        deduplicator.offer(createJsonMessage("dedup", "Repeated"), 0, summaries::add);
+        deduplicator.offer(createJsonMessage("dedup", "Repeated"), 1, summaries::add);
+        deduplicator.offer(createJsonMessage("dedup", "Repeated"), WINDOW_MS + 1, summary -> {
+            offerFromOtherThread.run();
+            summaries.add(summary);
+        });
+        deduplicator.offer(createJsonMessage("dedup", "Repeated"), WINDOW_MS + 2, summaries::add);
+        deduplicator.expire(Long.MAX_VALUE, summary -> {
+            offerFromOtherThread.run();
+            summaries.add(summary);
+        });
+        assertEquals(2, summaries.stream().filter(summary -> summary.get("message").getAsString().equals("Repeated")).count());
+    }
+
+    @Test
+    public void summaryKeepsContextOfFirstRepeat() {
+        Deduplicator deduplicator = new Deduplicator(new String[]{"message"}, WINDOW_MS, 16,
+                sample -> sample.addProperty("thread", Thread.currentThread().getName()));
+        List<JsonObject> summaries = new ArrayList<>();
+        deduplicator.offer(createJsonMessage("dedup", "Traced"), 0, summaries::add);
+        deduplicator.offer(createJsonMessage("dedup", "Traced"), 1, summaries::add);
+        String loggingThread = Thread.currentThread().getName();
+
+        CompletableFuture.runAsync(() -> deduplicator.expireAll(summaries::add)).join();
+        assertEquals(1, summaries.size());
+        assertEquals(loggingThread, summaries.get(0).get("thread").getAsString());
+    }
+}
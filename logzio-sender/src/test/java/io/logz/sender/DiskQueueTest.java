@@ -4,6 +4,7 @@ import com.google.gson.JsonObject;
 import io.logz.sender.LogzioSender.Builder;
 import io.logz.sender.exceptions.LogzioParameterErrorException;
 import io.logz.test.TestEnvironment;
+import org.ikasan.bigqueue.BigQueueImpl;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +16,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import static io.logz.sender.LogzioTestSenderUtil.createJsonMessage;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -118,4 +121,51 @@ public class DiskQueueTest extends LogzioSenderTest {
         diskQueue.clear();
         assertTrue(dataFile.length() == 0);
     }
+
+    @Test
+    public void readsRecordsWrittenWithoutEnqueueTime() throws Exception {
+        Logger logger = LoggerFactory.getLogger(LogzioSenderTest.class);
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(1);
+        File tempDirectory = TestEnvironment.createTempDirectory();
+        File queueDir = new File(tempDirectory, "testRecordFraming");
+        byte[] oldLog = createJsonMessage("testRecordFraming", "old").toString().getBytes(StandardCharsets.UTF_8);
+        byte[] newLog = createJsonMessage("testRecordFraming", "new").toString().getBytes(StandardCharsets.UTF_8);
+        BigQueueImpl oldQueue = new BigQueueImpl(tempDirectory.getAbsolutePath(), queueDir.getName());
+        oldQueue.enqueue(oldLog);
+        oldQueue.close();
+
+        long beforeEnqueue = System.currentTimeMillis();
+        DiskQueue diskQueue = LogzioSender.builder().withDiskQueue().setQueueDir(queueDir).setStoreEnqueueTime(true)
+                .setDiskSpaceTasks(tasks).setReporter(new LogzioTestStatusReporter(logger)).build();
+        diskQueue.enqueue(newLog);
+        assertEquals(0, diskQueue.getOldestEnqueueTimeMillis());
+
+        FormattedLogMessage old = diskQueue.dequeueMessage();
+        assertArrayEquals(oldLog, old.getMessage());
+        assertEquals(0, old.getEnqueueTimeMillis());
+        assertTrue(diskQueue.getOldestEnqueueTimeMillis() >= beforeEnqueue);
+        FormattedLogMessage framed = diskQueue.dequeueMessage();
+        assertArrayEquals(newLog, framed.getMessage());
+        assertTrue(framed.getEnqueueTimeMillis() >= beforeEnqueue);
+        diskQueue.close();
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void writesRecordsWithoutEnqueueTimeByDefault() throws Exception {
+        Logger logger = LoggerFactory.getLogger(LogzioSenderTest.class);
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(1);
+        File queueDir = new File(TestEnvironment.createTempDirectory(), "testNoRecordFraming");
+        byte[] log = createJsonMessage("testNoRecordFraming", "plain").toString().getBytes(StandardCharsets.UTF_8);
+        DiskQueue diskQueue = LogzioSender.builder().withDiskQueue().setQueueDir(queueDir).setDiskSpaceTasks(tasks)
+                .setReporter(new LogzioTestStatusReporter(logger)).build();
+        diskQueue.enqueue(log);
+        assertEquals(0, diskQueue.getOldestEnqueueTimeMillis());
+
+        FormattedLogMessage plain = diskQueue.dequeueMessage();
+        assertArrayEquals(log, plain.getMessage());
+        assertEquals(0, plain.getEnqueueTimeMillis());
+        diskQueue.close();
+        tasks.shutdownNow();
+    }
 }
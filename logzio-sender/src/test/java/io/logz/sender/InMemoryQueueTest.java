@@ -3,15 +3,26 @@ package io.logz.sender;
 import com.google.gson.JsonObject;
 import io.logz.sender.LogzioSender.Builder;
 import io.logz.sender.exceptions.LogzioParameterErrorException;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import static io.logz.sender.LogzioTestSenderUtil.createJsonMessage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class InMemoryQueueTest extends LogzioSenderTest {
@@ -104,6 +115,264 @@ public class InMemoryQueueTest extends LogzioSenderTest {
         tasks.shutdownNow();
     }
 
+    @Test
+    public void serializeOnDrainSendsLog() throws LogzioParameterErrorException, IOException {
+        String token = "serializeOnDrainSendsLog";
+        String type = random(8);
+        String loggerName = "serializeOnDrainSendsLog";
+        int drainTimeout = 2;
+        String message = "Serialized on drain - " + random(5);
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        testSenderBuilder.withInMemoryQueue().setSerializeOnDrain(true).endInMemoryQueue();
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        JsonObject log = createJsonMessage(loggerName, message);
+        testSender.send(log);
+
+        sleepSeconds(2 * drainTimeout);
+        mockListener.assertNumberOfReceivedMsgs(1);
+        mockListener.assertLogReceivedIs(message, token, type, loggerName, LogzioTestSenderUtil.LOGLEVEL);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void serializeOnDrainSendsLogAsItWasWhenSent() throws LogzioParameterErrorException, IOException {
+        String token = "serializeOnDrainSendsLogAsItWasWhenSent";
+        String type = random(8);
+        String loggerName = "serializeOnDrainSendsLogAsItWasWhenSent";
+        int drainTimeout = 2;
+        String message = "Frozen on send - " + random(5);
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        testSenderBuilder.withInMemoryQueue().setSerializeOnDrain(true).endInMemoryQueue();
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        JsonObject log = createJsonMessage(loggerName, message);
+        testSender.send(log);
+        log.addProperty("message", "Changed after send");
+        log.addProperty("logger", "changedLogger");
+
+        sleepSeconds(2 * drainTimeout);
+        mockListener.assertNumberOfReceivedMsgs(1);
+        mockListener.assertLogReceivedIs(message, token, type, loggerName, LogzioTestSenderUtil.LOGLEVEL);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void serializeOnDrainCountsSizeLimitsOnceAcrossRetries() throws Exception {
+        String token = "serializeOnDrainCountsSizeLimitsOnceAcrossRetries";
+        String type = random(8);
+        String loggerName = "serializeOnDrainCountsSizeLimitsOnceAcrossRetries";
+        int drainTimeout = 1;
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        testSenderBuilder.withInMemoryQueue().setSerializeOnDrain(true).endInMemoryQueue();
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        String oversizedMessage = new String(new char[40000]).replace('\0', 'a');
+
+        mockListener.setFailWithServerError(true);
+        testSender.send(createJsonMessage(loggerName, oversizedMessage));
+        sleepSeconds(2 * drainTimeout);
+        mockListener.assertNumberOfReceivedMsgs(0);
+        mockListener.setFailWithServerError(false);
+        sleepSeconds(2 * drainTimeout);
+
+        mockListener.assertNumberOfReceivedMsgs(1);
+        assertEquals(1, testSender.getMetrics().getTruncatedLogs());
+        assertEquals(1, testSender.getMetrics().getSentLogs());
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void estimatesUtf8Size() {
+        JsonObject ascii = new JsonObject();
+        ascii.addProperty("message", "hello e, ab");
+        JsonObject multiByte = new JsonObject();
+        multiByte.addProperty("message", "h\u00e9llo \u20ac, \ud83d\ude00");
+        int bytesDifference = multiByte.toString().getBytes(StandardCharsets.UTF_8).length - ascii.toString().getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(bytesDifference, LogzioSender.estimateSize(multiByte) - LogzioSender.estimateSize(ascii));
+    }
+
+    @Test
+    public void sendWithAckReportsDelivery() throws Exception {
+        String token = "sendWithAckReportsDelivery";
+        String type = random(8);
+        String loggerName = "sendWithAckReportsDelivery";
+        int drainTimeout = 2;
+        String message = "Acked log - " + random(5);
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        testSenderBuilder.setExceedMaxSizeAction("drop");
+        setLogsCountLimit(testSenderBuilder, 1);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        sleepSeconds(drainTimeout - 1);
+
+        CompletableFuture<DeliveryResult> delivered = testSender.sendWithAck(createJsonMessage(loggerName, message));
+        CompletableFuture<DeliveryResult> queueFull = testSender.sendWithAck(createJsonMessage(loggerName, message));
+        JsonObject oversized = createJsonMessage(loggerName, new String(new char[40000]).replace('\0', 'a'));
+        CompletableFuture<DeliveryResult> dropped = testSender.sendWithAck(oversized);
+
+        assertEquals(DeliveryResult.DROPPED_QUEUE_FULL, queueFull.getNow(null));
+        assertEquals(DeliveryResult.DROPPED_OVERSIZED, dropped.getNow(null));
+        assertEquals(DeliveryResult.DELIVERED, delivered.get(4 * drainTimeout, TimeUnit.SECONDS));
+        mockListener.assertNumberOfReceivedMsgs(1);
+        mockListener.assertLogReceivedIs(message, token, type, loggerName, LogzioTestSenderUtil.LOGLEVEL);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void sendWithAckIsSampledAndKeepsPooledEvent() throws Exception {
+        String token = "sendWithAckIsSampledAndKeepsPooledEvent";
+        String type = random(8);
+        String loggerName = "sendWithAckIsSampledAndKeepsPooledEvent";
+        int drainTimeout = 2;
+        String message = "Event in progress - " + random(5);
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        testSenderBuilder.setSamplingRate(LogzioTestSenderUtil.LOGLEVEL, 0);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+
+        LogEvent inProgress = testSender.newLogEvent().field("message", message).field("logger", loggerName);
+        CompletableFuture<DeliveryResult> sampled = testSender.sendWithAck(createJsonMessage(loggerName, "Sampled out"));
+        assertEquals(DeliveryResult.DROPPED_SAMPLED, sampled.getNow(null));
+
+        testSender.send(inProgress);
+        testSender.flush().get(4 * drainTimeout, TimeUnit.SECONDS);
+        mockListener.assertNumberOfReceivedMsgs(1);
+        mockListener.assertLogReceivedByMessage(message);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void subscriberWaitsForQueueSpace() throws Exception {
+        String token = "subscriberWaitsForQueueSpace";
+        String type = random(8);
+        String loggerName = "subscriberWaitsForQueueSpace";
+        int drainTimeout = 2;
+        int logsCount = 100;
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        // The queue only has room for two bulks, a subscriber that ignored it would lose most of the logs
+        testSenderBuilder.setLingerMs(100).setBatchMaxCount(10);
+        setLogsCountLimit(testSenderBuilder, 20);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+
+        try (SubmissionPublisher<JsonObject> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(testSender.newSubscriber());
+            for (int i = 0; i < logsCount; i++) {
+                publisher.submit(createJsonMessage(loggerName, "Published log " + i));
+            }
+        }
+        sleepSeconds(drainTimeout * 2);
+
+        mockListener.assertNumberOfReceivedMsgs(logsCount);
+        mockListener.assertLogReceivedIs("Published log " + (logsCount - 1), token, type, loggerName, LogzioTestSenderUtil.LOGLEVEL);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void metricsCountEnqueuedDroppedAndSentLogs() throws Exception {
+        String token = "metricsCountEnqueuedDroppedAndSentLogs";
+        String type = random(8);
+        String loggerName = "metricsCountEnqueuedDroppedAndSentLogs";
+        int drainTimeout = 2;
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        setLogsCountLimit(testSenderBuilder, 5);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        for (int i = 0; i < 7; i++) {
+            testSender.send(createJsonMessage(loggerName, "Counted log " + i));
+        }
+        testSender.send("bug".getBytes(StandardCharsets.UTF_8));
+
+        SenderMetrics metrics = testSender.getMetrics();
+        assertEquals(5, metrics.getEnqueuedLogs());
+        assertEquals(2, metrics.getDroppedLogs(DropReason.QUEUE_FULL));
+        assertEquals(1, metrics.getDroppedLogs(DropReason.INVALID));
+        assertEquals(5, metrics.getQueuedLogs());
+
+        testSender.flush().get(4 * drainTimeout, TimeUnit.SECONDS);
+        assertEquals(5, metrics.getSentLogs());
+        assertEquals(1, metrics.getSentBulks());
+        assertEquals(0, metrics.getQueuedLogs());
+        assertEquals(1, metrics.getSendLatencyMs().getCount());
+        assertEquals(5, metrics.getLogLatencyMs().getCount());
+        assertEquals(0, metrics.getOldestQueuedLogAgeMs());
+        mockListener.assertNumberOfReceivedMsgs(5);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void flushCompletesUnderSteadyLogging() throws Exception {
+        String token = "flushCompletesUnderSteadyLogging";
+        String type = random(8);
+        String loggerName = "flushCompletesUnderSteadyLogging";
+        int drainTimeout = 2;
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        testSenderBuilder.setLingerMs(50);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        AtomicBoolean logging = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; logging.get(); i++) {
+                testSender.send(createJsonMessage(loggerName, "Steady log " + i));
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        });
+        producer.start();
+        try {
+            Thread.sleep(200);
+            testSender.flush().get(4 * drainTimeout, TimeUnit.SECONDS);
+        } finally {
+            logging.set(false);
+            producer.join();
+        }
+        assertTrue(testSender.getMetrics().getSentLogs() > 0);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void openTelemetryObservesTheSenderPipeline() throws Exception {
+        String token = "openTelemetryObservesTheSenderPipeline";
+        String type = random(8);
+        String loggerName = "openTelemetryObservesTheSenderPipeline";
+        int drainTimeout = 2;
+        InMemoryMetricReader metricReader = InMemoryMetricReader.create();
+        OpenTelemetrySdk openTelemetry = OpenTelemetrySdk.builder()
+                .setMeterProvider(SdkMeterProvider.builder().registerMetricReader(metricReader).build())
+                .build();
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(3);
+        Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        testSenderBuilder.setOpenTelemetry(openTelemetry);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        for (int i = 0; i < 3; i++) {
+            testSender.send(createJsonMessage(loggerName, "Observed log " + i));
+        }
+        testSender.flush().get(4 * drainTimeout, TimeUnit.SECONDS);
+
+        Collection<MetricData> metrics = metricReader.collectAllMetrics();
+        MetricData sentLogs = getMetric(metrics, "logzio.sender.logs.sent");
+        assertEquals(3, sentLogs.getLongSumData().getPoints().iterator().next().getValue());
+        assertEquals(1, getMetric(metrics, "logzio.sender.bulk.duration").getHistogramData().getPoints().iterator().next().getCount());
+        assertEquals(type, sentLogs.getLongSumData().getPoints().iterator().next().getAttributes().get(SenderTelemetry.TYPE_KEY));
+
+        openTelemetry.close();
+        tasks.shutdownNow();
+    }
+
+    private static MetricData getMetric(Collection<MetricData> metrics, String name) {
+        return metrics.stream().filter(metric -> metric.getName().equals(name)).findFirst()
+                .orElseThrow(() -> new AssertionError("No metric named " + name));
+    }
+
     @Test
     public void testFilesCleanedFromQueue() {
         Logger logger = LoggerFactory.getLogger(LogzioSenderTest.class);
@@ -0,0 +1,103 @@
+package io.logz.sender;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IngestStageTest {
+    private final SenderStatusReporter reporter = new LogzioTestStatusReporter(LoggerFactory.getLogger(IngestStageTest.class));
+
+    @Test
+    public void processesEveryOfferedLogExactlyOnce() throws Exception {
+        int producers = 8;
+        int logsPerProducer = 20000;
+        Set<Integer> processed = ConcurrentHashMap.newKeySet();
+        IngestStage stage = new IngestStage(3, 1024, log -> assertTrue(processed.add((Integer) log)), reporter);
+        stage.start();
+
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            int base = p * logsPerProducer;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < logsPerProducer; i++) {
+                    Integer log = base + i;
+                    if (!stage.offer(log)) {
+                        // Same fallback as LogzioSender, process on the calling thread
+                        processed.add(log);
+                    }
+                }
+                done.countDown();
+            });
+            thread.start();
+        }
+        done.await();
+        stage.stop(10000);
+
+        assertEquals(producers * logsPerProducer, processed.size());
+        assertTrue(stage.isEmpty());
+    }
+
+    @Test
+    public void refusesLogsWhenFullOrStopped() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger processed = new AtomicInteger();
+        IngestStage stage = new IngestStage(1, 4, log -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.incrementAndGet();
+        }, reporter);
+        assertFalse(stage.offer("before start"));
+
+        stage.start();
+        int accepted = 0;
+        while (stage.offer("log")) {
+            accepted++;
+        }
+        // The worker holds one log while the ring fills up
+        assertTrue(accepted >= 4 && accepted <= 5, "accepted " + accepted);
+
+        release.countDown();
+        stage.stop(10000);
+        assertEquals(accepted, processed.get());
+        assertFalse(stage.offer("after stop"));
+    }
+
+    @Test
+    public void processesLogsAcceptedWhileStopping() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            AtomicInteger accepted = new AtomicInteger();
+            AtomicInteger processed = new AtomicInteger();
+            IngestStage stage = new IngestStage(2, 1024, log -> processed.incrementAndGet(), reporter);
+            stage.start();
+
+            int producers = 4;
+            CountDownLatch done = new CountDownLatch(producers);
+            for (int p = 0; p < producers; p++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        if (stage.offer(i)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                });
+                thread.start();
+            }
+            stage.stop(10000);
+            done.await();
+
+            assertEquals(accepted.get(), processed.get(), "round " + round);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.logz.sender;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JfrEventsTest {
+
+    @Test
+    public void dropsAreRecordedOnlyWhenEnabled() throws Exception {
+        SenderMetrics metrics = new SenderMetrics(null);
+        metrics.onDropped(DropReason.INVALID);
+        Path dump = Files.createTempFile("logzio-sender", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.logz.sender.Drop");
+            recording.start();
+            metrics.onDropped(DropReason.QUEUE_FULL);
+            metrics.onDropped(DropReason.OVERSIZED);
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<String> reasons = RecordingFile.readAllEvents(dump).stream()
+                .filter(event -> event.getEventType().getName().equals("io.logz.sender.Drop"))
+                .map(event -> event.getString("reason"))
+                .collect(Collectors.toList());
+        assertEquals(List.of("QUEUE_FULL", "OVERSIZED"), reasons);
+        assertEquals(3, metrics.getDroppedLogs().values().stream().mapToLong(Long::longValue).sum());
+        Files.delete(dump);
+    }
+
+    @Test
+    public void compressedBulksRecordCompression() throws Exception {
+        new SenderMetrics(null);
+        byte[] log = "{\"message\":\"compressed\"}".getBytes(StandardCharsets.UTF_8);
+        Path dump = Files.createTempFile("logzio-sender", ".jfr");
+        byte[] payload;
+        try (Recording recording = new Recording()) {
+            recording.enable("io.logz.sender.Compression");
+            recording.start();
+            CompressedBulk bulk = new CompressedBulk(1024, new DeflaterPool(1));
+            bulk.add(new FormattedLogMessage(log));
+            bulk.add(new FormattedLogMessage(log));
+            payload = bulk.finish();
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> compressions = RecordingFile.readAllEvents(dump).stream()
+                .filter(event -> event.getEventType().getName().equals("io.logz.sender.Compression"))
+                .collect(Collectors.toList());
+        assertEquals(1, compressions.size());
+        assertEquals(2, compressions.get(0).getInt("logs"));
+        assertEquals(2L * (log.length + 1), compressions.get(0).getLong("uncompressedBytes"));
+        assertEquals(payload.length, compressions.get(0).getLong("compressedBytes"));
+        Files.delete(dump);
+    }
+
+    @Test
+    public void eventsAreRegisteredWhenMetricsAreCreated() {
+        new SenderMetrics(null);
+        List<String> names = FlightRecorder.getFlightRecorder().getEventTypes().stream()
+                .map(EventType::getName)
+                .collect(Collectors.toList());
+        assertTrue(names.containsAll(List.of("io.logz.sender.Drop", "io.logz.sender.BulkAssembly",
+                "io.logz.sender.HttpSend", "io.logz.sender.Retry", "io.logz.sender.DiskQueueGc")), names.toString());
+    }
+}
@@ -0,0 +1,72 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JsonScannerTest {
+    private static final byte[] SUFFIX = "...truncated".getBytes(StandardCharsets.UTF_8);
+
+    private final JsonScanner scanner = new JsonScanner();
+
+    private boolean scan(String json) {
+        return scanner.scan(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void acceptsValidObjects() {
+        assertTrue(scan("{}"));
+        assertTrue(scan(" {\"a\" : [1, -2.5e+3, 0, true, false, null, {\"b\": []}], \"c\": \"\\u00e9\\n\\\"\"} "));
+        assertEquals(-1, scanner.messageSize());
+        assertTrue(scan("{\"message\":\"caf\u00e9 \ud83d\ude00\"}"));
+        assertEquals(10, scanner.messageSize());
+    }
+
+    @Test
+    public void rejectsInvalidInput() {
+        String[] invalid = {"bug", "", "[1]", "\"message\"", "{", "{\"a\":1", "{\"a\":1,}", "{\"a\" 1}", "{a:1}",
+                "{\"a\":01}", "{\"a\":1.}", "{\"a\":-}", "{\"a\":tru}", "{\"a\":\"\\x\"}", "{\"a\":\"\\u12g4\"}",
+                "{\"a\":\"tab\there\"}", "{\"a\":1} {}", "{\"a\":[1,]}"};
+        for (String json : invalid) {
+            assertFalse(scan(json), json);
+        }
+        assertFalse(scanner.scan(new byte[]{'{', '"', 'a', '"', ':', '"', (byte) 0xC3, '"', '}'}));
+        assertFalse(scanner.scan(new byte[]{'{', '"', 'a', '"', ':', '"', (byte) 0xFF, '"', '}'}));
+    }
+
+    @Test
+    public void findsRootMessageOnly() {
+        String json = "{\"nested\":{\"message\":\"inner\"},\"message\":\"outer \\\"quoted\\\"\",\"after\":1}";
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        assertTrue(scanner.scan(bytes));
+        assertEquals("outer \\\"quoted\\\"", new String(bytes, scanner.getMessageStart(), scanner.messageSize(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void truncatesMessageOnCharacterBoundary() {
+        byte[] bytes = "{\"message\":\"ab\u00e9\u00e9\",\"logger\":\"l\"}".getBytes(StandardCharsets.UTF_8);
+        assertTrue(scanner.scan(bytes));
+        // 4 bytes would split the first two byte character after "ab"
+        byte[] truncated = JsonScanner.truncateString(bytes, scanner.getMessageStart(), scanner.getMessageEnd(), 3, SUFFIX);
+
+        JsonObject json = JsonParser.parseString(new String(truncated, StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals("ab...truncated", json.get("message").getAsString());
+        assertEquals("l", json.get("logger").getAsString());
+    }
+
+    @Test
+    public void detectsLineBreaksBetweenTokens() {
+        assertTrue(scan("{\n  \"message\": \"pretty\"\r\n}"));
+        assertTrue(scanner.hasLineBreaks());
+        byte[] oneLine = JsonScanner.replaceLineBreaks("{\n  \"message\": \"pretty\"\r\n}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("{   \"message\": \"pretty\"  }", new String(oneLine, StandardCharsets.UTF_8));
+        assertTrue(scan("{\"message\":\"a\\nb\"}"));
+        assertFalse(scanner.hasLineBreaks());
+    }
+}
@@ -0,0 +1,123 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LogEventTest {
+    private static final byte[] SUFFIX = "...truncated".getBytes(StandardCharsets.UTF_8);
+
+    private JsonObject parse(LogEvent logEvent) {
+        return JsonParser.parseString(new String(logEvent.toByteArray(), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    @Test
+    public void encodesAllFieldTypes() {
+        LogEvent logEvent = new LogEvent();
+        logEvent.field("message", "hello")
+                .field("count", 42)
+                .field("negative", -7L)
+                .field("ratio", 0.25)
+                .field("whole", 3.0)
+                .field("ok", true)
+                .field("missing", (String) null)
+                .beginObject("mdc")
+                    .field("user", "alice")
+                    .beginObject("request")
+                        .field("id", 1L)
+                    .endObject()
+                .endObject()
+                .field("after", false);
+        logEvent.seal();
+
+        JsonObject json = parse(logEvent);
+        assertEquals("hello", json.get("message").getAsString());
+        assertEquals(42, json.get("count").getAsLong());
+        assertEquals(-7, json.get("negative").getAsLong());
+        assertEquals(0.25, json.get("ratio").getAsDouble(), 0);
+        assertEquals(3.0, json.get("whole").getAsDouble(), 0);
+        assertTrue(json.get("ok").getAsBoolean());
+        assertTrue(json.get("missing").isJsonNull());
+        assertEquals("alice", json.getAsJsonObject("mdc").get("user").getAsString());
+        assertEquals(1, json.getAsJsonObject("mdc").getAsJsonObject("request").get("id").getAsLong());
+        assertEquals(false, json.get("after").getAsBoolean());
+    }
+
+    @Test
+    public void escapesStringsLikeGson() {
+        String message = "quote\" backslash\\ newline\n tab\t control\u0001 unicode \u00e9\u4e2d \ud83d\ude00";
+        LogEvent logEvent = new LogEvent();
+        logEvent.field("message", message);
+        logEvent.seal();
+
+        assertEquals(message, parse(logEvent).get("message").getAsString());
+        // four two-byte escapes and one six-byte unicode escape
+        assertEquals(message.getBytes(StandardCharsets.UTF_8).length + 4 + 5, logEvent.messageSize());
+    }
+
+    @Test
+    public void closesNestedObjectsWhenSealed() {
+        LogEvent logEvent = new LogEvent();
+        logEvent.field("message", "m").beginObject("outer").beginObject("inner").field("a", 1L);
+        logEvent.seal();
+
+        assertEquals(1, parse(logEvent).getAsJsonObject("outer").getAsJsonObject("inner").get("a").getAsLong());
+        assertThrows(IllegalStateException.class, () -> logEvent.field("late", 1L));
+    }
+
+    @Test
+    public void truncatesMessageOnCharacterBoundary() {
+        String message = "ab\u00e9\u00e9\u00e9\u00e9";
+        LogEvent logEvent = new LogEvent();
+        logEvent.field("message", message).field("logger", "test");
+        logEvent.seal();
+
+        // "ab" and half of the first two-byte character fit, the cut must not split it
+        logEvent.truncateMessage(3, SUFFIX);
+
+        JsonObject json = parse(logEvent);
+        assertEquals("ab...truncated", json.get("message").getAsString());
+        assertEquals("test", json.get("logger").getAsString());
+        assertEquals(logEvent.toByteArray().length, logEvent.size());
+    }
+
+    @Test
+    public void truncatesMessageOnEscapeBoundary() {
+        LogEvent logEvent = new LogEvent();
+        logEvent.field("message", "a\nb\u0001c");
+        logEvent.seal();
+
+        logEvent.truncateMessage(6, SUFFIX);
+
+        assertEquals("a\nb...truncated", parse(logEvent).get("message").getAsString());
+    }
+
+    @Test
+    public void messageSizeIsMissingWithoutMessageField() {
+        LogEvent logEvent = new LogEvent();
+        logEvent.beginObject("nested").field("message", "not the root message").endObject();
+        logEvent.seal();
+
+        assertEquals(-1, logEvent.messageSize());
+    }
+
+    @Test
+    public void resetEmptiesTheEvent() {
+        LogEvent logEvent = new LogEvent();
+        logEvent.field("message", "first");
+        logEvent.seal();
+        logEvent.reset();
+        logEvent.field("message", "second");
+        logEvent.seal();
+
+        JsonObject json = parse(logEvent);
+        assertEquals(1, json.size());
+        assertEquals("second", json.get("message").getAsString());
+    }
+}
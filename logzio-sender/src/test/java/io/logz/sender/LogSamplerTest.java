@@ -0,0 +1,118 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.logz.sender.LogzioTestSenderUtil.createJsonMessage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LogSamplerTest {
+
+    @Test
+    public void samplesByLevelAndKeepsErrors() {
+        Map<String, Double> samplingRates = new HashMap<>();
+        samplingRates.put("debug", 0.0);
+        samplingRates.put("info", 0.5);
+        LogSampler sampler = new LogSampler(samplingRates, Collections.singleton("error"), "logger", 0, new SenderMetrics(null));
+
+        int keptInfo = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sampler.sample(withLevel("sampler", "ERROR")));
+            assertFalse(sampler.sample(withLevel("sampler", "DEBUG")));
+            if (sampler.sample(withLevel("sampler", "INFO"))) {
+                keptInfo++;
+            }
+            assertTrue(sampler.sample(withLevel("sampler", "WARN")));
+        }
+        assertTrue(keptInfo > 350 && keptInfo < 650, "kept " + keptInfo + " of 1000 info logs");
+        assertEquals(1000 + 1000 - keptInfo, sampler.getSampledOut());
+        assertEquals(0, sampler.getRateLimited());
+    }
+
+    @Test
+    public void rateLimitsEachKey() {
+        LogSampler sampler = new LogSampler(Collections.emptyMap(), Collections.singleton("ERROR"), "logger", 10, new SenderMetrics(null));
+        int keptNoisy = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample(withLevel("noisy", "INFO"))) {
+                keptNoisy++;
+            }
+        }
+        // The burst is one second of logs, and this loop takes far less than a second
+        assertTrue(keptNoisy >= 10 && keptNoisy <= 12, "kept " + keptNoisy + " noisy logs");
+        assertTrue(sampler.sample(withLevel("quiet", "INFO")));
+        assertTrue(sampler.sample(withLevel("noisy", "ERROR")));
+        assertEquals(100 - keptNoisy, sampler.getRateLimited());
+    }
+
+    @Test
+    public void readsLevelFromConfiguredField() {
+        LogSampler sampler = new LogSampler(Collections.singletonMap("debug", 0.0), Collections.singleton("error"), "severity", "logger",
+                0, 0, null, new SenderMetrics(null));
+        JsonObject debug = createJsonMessage("sampler", "Sampled log");
+        debug.addProperty("severity", "debug");
+        JsonObject error = createJsonMessage("sampler", "Kept log");
+        error.addProperty("severity", "error");
+
+        assertFalse(sampler.sample(debug));
+        assertTrue(sampler.sample(error));
+        assertEquals(1, sampler.getSampledOut());
+    }
+
+    @Test
+    public void errorSendsTailOfItsTrace() {
+        LogSampler sampler = new LogSampler(Collections.singletonMap("debug", 0.0), Collections.singleton("error"), LogSampler.LEVEL_FIELD,
+                "logger", 0, 60000, null, new SenderMetrics(null));
+        List<JsonObject> kept = new ArrayList<>();
+        JsonObject firstOfTrace = withTrace("DEBUG", "trace-a");
+        assertFalse(sampler.sample(firstOfTrace, kept::add));
+        assertFalse(sampler.sample(withTrace("DEBUG", "trace-b"), kept::add));
+        assertFalse(sampler.sample(withTrace("DEBUG", "trace-a"), kept::add));
+        assertFalse(sampler.sample(withLevel("sampler", "DEBUG"), kept::add));
+        firstOfTrace.addProperty("message", "Changed after sampling");
+
+        assertTrue(sampler.sample(withTrace("ERROR", "trace-a"), kept::add));
+        assertEquals(2, kept.size());
+        kept.forEach(log -> assertEquals("trace-a", log.get(LogSampler.TRACE_ID_FIELD).getAsString()));
+        assertEquals("Sampled log", kept.get(0).get("message").getAsString());
+
+        assertTrue(sampler.sample(withLevel("sampler", "ERROR"), kept::add));
+        assertEquals(3, kept.size());
+        assertFalse(kept.get(2).has(LogSampler.TRACE_ID_FIELD));
+        // Only the log of trace-b is still kept, and it isn't counted before it leaves the window
+        assertEquals(0, sampler.getSampledOut());
+    }
+
+    @Test
+    public void countsTailAsSampledOutOnceItExpires() throws InterruptedException {
+        LogSampler sampler = new LogSampler(Collections.singletonMap("debug", 0.0), Collections.singleton("error"), LogSampler.LEVEL_FIELD,
+                "logger", 0, 50, null, new SenderMetrics(null));
+        List<JsonObject> kept = new ArrayList<>();
+        assertFalse(sampler.sample(withLevel("sampler", "DEBUG"), kept::add));
+        Thread.sleep(100);
+
+        assertEquals(1, sampler.getSampledOut());
+        assertTrue(sampler.sample(withLevel("sampler", "ERROR"), kept::add));
+        assertTrue(kept.isEmpty());
+    }
+
+    private static JsonObject withTrace(String level, String traceId) {
+        JsonObject jsonMessage = withLevel("sampler", level);
+        jsonMessage.addProperty(LogSampler.TRACE_ID_FIELD, traceId);
+        return jsonMessage;
+    }
+
+    private static JsonObject withLevel(String loggerName, String level) {
+        JsonObject jsonMessage = createJsonMessage(loggerName, "Sampled log");
+        jsonMessage.addProperty(LogSampler.LEVEL_FIELD, level);
+        return jsonMessage;
+    }
+}
@@ -19,9 +19,11 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.Tracer;
@@ -206,7 +208,8 @@ public abstract class LogzioSenderTest {
         mockListener.assertNumberOfReceivedMsgs(2);
         mockListener.assertLogReceivedIs(message1, token, type, loggerName, LOGLEVEL);
         mockListener.assertLogReceivedIs(message2, token, type, loggerName, LOGLEVEL);
-        mockListener.assertNumberOfReceivedMalformedMsgs(1);
+        // The invalid byte[] is dropped by the sender, so it doesn't reach the listener and fail the bulk
+        mockListener.assertNumberOfReceivedMalformedMsgs(0);
     }
 
     @Test
@@ -228,6 +231,224 @@ public abstract class LogzioSenderTest {
         mockListener.assertLogReceivedIs(message2, token, type, loggerName, LOGLEVEL);
     }
 
+    @Test
+    public void perLogTypeAppending() throws Exception {
+        String token = "aBcDeFgHiJkLmNoPqRsT";
+        String type = random(8);
+        String otherType = random(8);
+        String loggerName = "perLogTypeAppending";
+        int drainTimeout = 2;
+        String message1 = "Testing.." + random(5);
+        String message2 = "Warning test.." + random(5);
+        String message3 = "Event test.." + random(5);
+        LogzioSender.Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout,
+                10 * 1000, 10 * 1000, tasks, false, false);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        testSender.send(createJsonMessage(loggerName, message1));
+        JsonObject typedLog = createJsonMessage(loggerName, message2);
+        testSender.send(typedLog, otherType);
+        assertFalse(typedLog.has("type"));
+        testSender.send(testSender.newLogEvent().field("message", message3).field("logger", loggerName)
+                .field("loglevel", LOGLEVEL), otherType);
+        sleepSeconds(drainTimeout * 3);
+        mockListener.assertNumberOfReceivedMsgs(3);
+        mockListener.assertLogReceivedIs(message1, token, type, loggerName, LOGLEVEL);
+        mockListener.assertLogReceivedIs(message2, token, otherType, loggerName, LOGLEVEL);
+        mockListener.assertLogReceivedIs(message3, token, otherType, loggerName, LOGLEVEL);
+    }
+
+    @Test
+    public void simpleLogEventAppending() throws Exception {
+        String token = "aBcDeFgHiJkLmNoPqRsT";
+        String type = random(8);
+        String loggerName = "simpleLogEventAppending";
+        int drainTimeout = 2;
+        String message1 = "Testing.." + random(5);
+        String message2 = "Warning test.." + random(5);
+        LogzioSender.Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout,
+                10 * 1000, 10 * 1000, tasks, false, false);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        testSender.send(testSender.newLogEvent().field("message", message1).field("loglevel", LOGLEVEL).field("logger", loggerName));
+        testSender.send(testSender.newLogEvent().field("message", message2).field("loglevel", LOGLEVEL).field("logger", loggerName));
+        sleepSeconds(drainTimeout * 3);
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedIs(message1, token, type, loggerName, LOGLEVEL);
+        mockListener.assertLogReceivedIs(message2, token, type, loggerName, LOGLEVEL);
+    }
+
+    @Test
+    public void asyncIngestAppending() throws Exception {
+        String token = "asyncIngestToken";
+        String type = random(8);
+        String loggerName = "asyncIngestAppending";
+        int drainTimeout = 2;
+        String message1 = "Testing.." + random(5);
+        String message2 = "Warning test.." + random(5);
+        LogzioSender.Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout,
+                10 * 1000, 10 * 1000, tasks, false, false);
+        testSenderBuilder.setIngestThreads(2).setIngestBufferSize(16);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        testSender.send(createJsonMessage(loggerName, message1));
+        testSender.send(createJsonMessage(loggerName, message2).toString().getBytes(StandardCharsets.UTF_8));
+        sleepSeconds(drainTimeout * 3);
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedIs(message1, token, type, loggerName, LOGLEVEL);
+        mockListener.assertLogReceivedIs(message2, token, type, loggerName, LOGLEVEL);
+    }
+
+    @Test
+    public void lingerDrainSendsWithoutWaitingForDrainTimeout() throws Exception {
+        String token = "lingerToken";
+        String type = random(8);
+        String loggerName = "lingerDrainSendsWithoutWaitingForDrainTimeout";
+        int drainTimeout = 60;
+        String message1 = "Testing.." + random(5);
+        String message2 = "Warning test.." + random(5);
+        String message3 = "Linger test.." + random(5);
+        LogzioSender.Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout,
+                10 * 1000, 10 * 1000, tasks, false, false);
+        testSenderBuilder.setLingerMs(500).setBatchMaxCount(2);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+
+        // A full batch is sent right away, the log after it once the linger expires
+        testSender.send(createJsonMessage(loggerName, message1));
+        testSender.send(createJsonMessage(loggerName, message2));
+        testSender.send(createJsonMessage(loggerName, message3));
+        sleepSeconds(3);
+        mockListener.assertNumberOfReceivedMsgs(3);
+        mockListener.assertLogReceivedIs(message1, token, type, loggerName, LOGLEVEL);
+        mockListener.assertLogReceivedIs(message3, token, type, loggerName, LOGLEVEL);
+    }
+
+    @Test
+    public void flushSendsWithoutWaitingForDrainTimeout() throws Exception {
+        String token = "flushToken";
+        String type = random(8);
+        String loggerName = "flushSendsWithoutWaitingForDrainTimeout";
+        int drainTimeout = 60;
+        String message1 = "Testing.." + random(5);
+        String message2 = "Warning test.." + random(5);
+        LogzioSender.Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout,
+                10 * 1000, 10 * 1000, tasks, false, false);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        // Let the initial drain pass, so only the flush can send the logs
+        sleepSeconds(1);
+
+        testSender.send(createJsonMessage(loggerName, message1));
+        testSender.send(createJsonMessage(loggerName, message2));
+        testSender.flush().get(10, TimeUnit.SECONDS);
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedIs(message1, token, type, loggerName, LOGLEVEL);
+        mockListener.assertLogReceivedIs(message2, token, type, loggerName, LOGLEVEL);
+    }
+
+    @Test
+    public void sendersShareRegistry() throws Exception {
+        String type = random(8);
+        String loggerName = "sendersShareRegistry";
+        int drainTimeout = 2;
+        String message1 = "Testing.." + random(5);
+        String message2 = "Warning test.." + random(5);
+        try (LogzioSenderRegistry registry = LogzioSenderRegistry.builder().setDrainThreads(1).setMaxConnections(1).build()) {
+            LogzioSender.Builder firstSenderBuilder = getLogzioSenderBuilder("registryToken1", type, drainTimeout,
+                    10 * 1000, 10 * 1000, null, true, false);
+            LogzioSender firstSender = createLogzioSender(firstSenderBuilder.setRegistry(registry));
+            LogzioSender.Builder secondSenderBuilder = getLogzioSenderBuilder("registryToken2", type, drainTimeout,
+                    10 * 1000, 10 * 1000, null, true, false);
+            LogzioSender secondSender = createLogzioSender(secondSenderBuilder.setRegistry(registry));
+
+            firstSender.send(createJsonMessage(loggerName, message1));
+            secondSender.send(createJsonMessage(loggerName, message2));
+            sleepSeconds(drainTimeout * 3);
+            mockListener.assertNumberOfReceivedMsgs(2);
+            mockListener.assertLogReceivedIs(message1, "registryToken1", type, loggerName, LOGLEVEL);
+            mockListener.assertLogReceivedIs(message2, "registryToken2", type, loggerName, LOGLEVEL);
+        }
+    }
+
+    @Test
+    public void closedRegistryForgetsItsSenders() throws Exception {
+        String type = random(8);
+        LogzioSender closedSender;
+        try (LogzioSenderRegistry registry = LogzioSenderRegistry.builder().build()) {
+            closedSender = getLogzioSenderBuilder("closedRegistryToken", type, 2, 10 * 1000, 10 * 1000, null, false, false)
+                    .setRegistry(registry).build();
+        }
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(1);
+        LogzioSender newSender = getLogzioSenderBuilder("closedRegistryToken", type, 2, 10 * 1000, 10 * 1000, tasks, false, false)
+                .build();
+        assertNotSame(closedSender, newSender);
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void stopLeavesCallerTasksExecutorRunning() throws Exception {
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(1);
+        LogzioSender testSender = createLogzioSender(getLogzioSenderBuilder("callerExecutorToken", random(8), 2,
+                10 * 1000, 10 * 1000, tasks, false, false));
+        testSender.stop(Duration.ofSeconds(1));
+        assertFalse(tasks.isShutdown());
+        tasks.shutdownNow();
+    }
+
+    @Test
+    public void adaptiveBatchingBacksOffOnRejectedBulks() throws Exception {
+        int batchMaxBytes = 1024 * 1024;
+        mockListener.setErrorProbability(400, 1.0);
+        LogzioSender testSender = createLogzioSender(getLogzioSenderBuilder("adaptiveRejectedToken", random(8), 100,
+                10 * 1000, 10 * 1000, tasks, false, false)
+                .setAdaptiveBatching(true)
+                .setBatchMaxBytes(batchMaxBytes));
+        assertEquals(batchMaxBytes, testSender.getMetrics().getCurrentBatchMaxBytes());
+
+        testSender.send(createJsonMessage("adaptiveBatchingBacksOffOnRejectedBulks", "Rejected " + random(5)));
+        testSender.drainQueueAndSend();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (testSender.getMetrics().getCurrentBatchMaxBytes() == batchMaxBytes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(batchMaxBytes / 2, testSender.getMetrics().getCurrentBatchMaxBytes());
+        assertEquals(batchMaxBytes / 2, testSender.getCurrentBatchMaxBytes());
+    }
+
+    @Test
+    public void stoppedSenderStopsDrainingOnSharedScheduler() throws Exception {
+        String token = "stoppedSenderToken";
+        String type = random(8);
+        int drainTimeout = 1;
+        LogzioSender testSender = createLogzioSender(getLogzioSenderBuilder(token, type, drainTimeout,
+                10 * 1000, 10 * 1000, tasks, false, false));
+        testSender.stop(Duration.ofSeconds(1));
+        testSender.send(createJsonMessage("stoppedSender", "Sent after stop " + random(5)));
+        sleepSeconds(drainTimeout * 3);
+        mockListener.assertNumberOfReceivedMsgs(0);
+
+        LogzioSender newSender = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000, 10 * 1000, tasks, false, false)
+                .build();
+        assertNotSame(testSender, newSender);
+    }
+
+    @Test
+    public void virtualThreadsAppending() throws Exception {
+        String token = "virtualThreadsToken";
+        String type = random(8);
+        String loggerName = "virtualThreadsAppending";
+        int drainTimeout = 2;
+        String message1 = "Testing.." + random(5);
+        String message2 = "Warning test.." + random(5);
+        // Without a tasks executor the sender keeps time on its own scheduler thread.
+        // Before Java 21 it falls back to draining on that thread.
+        LogzioSender.Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout,
+                10 * 1000, 10 * 1000, null, false, false);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder.setVirtualThreads(true));
+        testSender.send(createJsonMessage(loggerName, message1));
+        testSender.send(createJsonMessage(loggerName, message2));
+        sleepSeconds(drainTimeout * 3);
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedIs(message1, token, type, loggerName, LOGLEVEL);
+        mockListener.assertLogReceivedIs(message2, token, type, loggerName, LOGLEVEL);
+    }
+
     @Test
     public void simpleGzipAppending() throws Exception {
         String token = "gzipToken";
@@ -402,6 +623,29 @@ public abstract class LogzioSenderTest {
         mockListener.assertLogReceivedIs(message2, token, type, loggerName, LOGLEVEL);
     }
 
+    @Test
+    public void retriesInjectedTooManyRequests() throws Exception {
+        String token = "retriesInjectedTooManyRequests";
+        String type = random(8);
+        String loggerName = "retriesInjectedTooManyRequests";
+        int drainTimeout = 1;
+        LogzioSender.Builder testSenderBuilder = getLogzioSenderBuilder(token, type, drainTimeout, 10 * 1000,
+                10 * 1000, tasks, false, false);
+        LogzioSender testSender = createLogzioSender(testSenderBuilder);
+        mockListener.setCountingOnly(true);
+        mockListener.setErrorProbability(429, 1);
+        for (int i = 0; i < 3; i++) {
+            testSender.send(createJsonMessage(loggerName, "Counted log " + i));
+        }
+        sleepSeconds(2 * drainTimeout);
+        mockListener.assertNumberOfReceivedMsgs(0);
+        assertTrue(mockListener.getStats().getInjectedErrors().get(429) > 0);
+        mockListener.setErrorProbability(429, 0);
+        sleepSeconds(2 * drainTimeout);
+        mockListener.assertNumberOfReceivedMsgs(3);
+        assertEquals(3, mockListener.getStats().getLogs());
+    }
+
     @Test
     public void checkExceedingMaxSizeJsonLogWithCut() throws LogzioParameterErrorException, IOException {
         String token = "checkExceedingMaxSizeJsonLogWithCut";
@@ -453,6 +697,23 @@ public abstract class LogzioSenderTest {
         tasks.shutdownNow();
     }
 
+    @Test
+    public void checkExceedingMaxSizeLogEventWithCut() throws LogzioParameterErrorException, IOException {
+        String token = "checkExceedingMaxSizeLogEventWithCut";
+        String type = random(8);
+        String loggerName = "checkExceedingMaxSizeLogEventWithCutName";
+        int drainTimeout = 2;
+        String message = new String(Files.readAllBytes(Paths.get(EXCEEDING_LOG_FILE_PATH)), StandardCharsets.UTF_8);
+        JsonObject log = createJsonMessage(loggerName, message);
+        int logSize = log.toString().getBytes(StandardCharsets.UTF_8).length;
+        ScheduledExecutorService tasks = Executors.newScheduledThreadPool(1);
+        LogzioSender testSender = getLogzioSenderWithAndExceedMaxSizeAction(token, type, drainTimeout, logSize, tasks, "cut");
+        testSender.send(testSender.newLogEvent().field("message", message).field("logger", loggerName));
+        sleepSeconds(2 * drainTimeout);
+        mockListener.assertLogReceivedByMessage(message.substring(0, MAX_LOG_LINE_SIZE_IN_BYTES - TRUNCATED_MESSAGE_SUFFIX.length()) + TRUNCATED_MESSAGE_SUFFIX);
+        tasks.shutdownNow();
+    }
+
     @Test
     public void checkExceedingMaxSizeJsonLogWithDrop() throws LogzioParameterErrorException, IOException {
         String token = "checkExceedingMaxSizeJsonLogWithDrop";
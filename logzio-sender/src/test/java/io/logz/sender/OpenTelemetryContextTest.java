@@ -0,0 +1,50 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class OpenTelemetryContextTest {
+    private static final Span SPAN = Span.wrap(SpanContext.create("0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331",
+            TraceFlags.getSampled(), TraceState.getDefault()));
+
+    @Test
+    public void resourceIsResolvedOnceAndReusedAcrossLogs() {
+        AtomicInteger resolutions = new AtomicInteger();
+        String[] serviceName = {"checkout"};
+        OpenTelemetryContext context = new OpenTelemetryContext(() -> {
+            resolutions.incrementAndGet();
+            return Resource.create(Attributes.of(ResourceAttributes.SERVICE_NAME, serviceName[0]));
+        });
+
+        try (Scope scope = SPAN.makeCurrent()) {
+            for (int i = 0; i < 3; i++) {
+                JsonObject log = new JsonObject();
+                context.addTo(log);
+                assertEquals("checkout", log.get("service_name").getAsString());
+            }
+            assertEquals(1, resolutions.get());
+
+            serviceName[0] = "payments";
+            JsonObject log = new JsonObject();
+            context.addTo(log);
+            assertEquals("checkout", log.get("service_name").getAsString());
+
+            context.refreshResource();
+            context.addTo(log);
+            assertEquals("payments", log.get("service_name").getAsString());
+            assertEquals(2, resolutions.get());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.logz.sender;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StaticFieldsTest {
+
+    private static StaticFields staticFields() {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("host", "web-1");
+        fields.put("env", "prod \"eu\"");
+        return new StaticFields(fields);
+    }
+
+    private static JsonObject parse(byte[] log) {
+        return JsonParser.parseString(new String(log, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    @Test
+    public void appendsToEncodedLogs() {
+        StaticFields staticFields = staticFields();
+        byte[] log = "{\"message\":\"hello\"}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] withFields = staticFields.appendTo(log);
+        assertEquals(log.length + staticFields.size(), withFields.length);
+        JsonObject json = parse(withFields);
+        assertEquals("hello", json.get("message").getAsString());
+        assertEquals("web-1", json.get("host").getAsString());
+        assertEquals("prod \"eu\"", json.get("env").getAsString());
+
+        assertEquals(2, parse(staticFields.appendTo("{}".getBytes(StandardCharsets.UTF_8))).size());
+        assertEquals(3, parse(staticFields.appendTo("{ \"a\" : 1 }  ".getBytes(StandardCharsets.UTF_8))).size());
+    }
+
+    @Test
+    public void appendsToLogEventsAtRootLevel() {
+        LogEvent logEvent = new LogEvent();
+        logEvent.field("message", "hello").beginObject("mdc").field("user", "alice");
+        staticFields().appendTo(logEvent);
+        logEvent.seal();
+
+        JsonObject json = parse(logEvent.toByteArray());
+        assertEquals("web-1", json.get("host").getAsString());
+        assertEquals("alice", json.getAsJsonObject("mdc").get("user").getAsString());
+        assertEquals(1, json.getAsJsonObject("mdc").size());
+    }
+}
@@ -0,0 +1,69 @@
+package io.logz.sender;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StatusEventsTest {
+    private final List<String> events = new ArrayList<>();
+    private final SenderStatusReporter reporter = new LogzioTestStatusReporter(LoggerFactory.getLogger(StatusEventsTest.class)) {
+        @Override
+        public void onStatusEvent(StatusEvent event, long count, long value) {
+            events.add(event + " " + count + " " + value);
+        }
+    };
+
+    @Test
+    public void firstEventOfEachTypeIsReportedAndTheRestAggregated() {
+        StatusEvents statusEvents = new StatusEvents(reporter, 60_000);
+        for (int i = 0; i < 1000; i++) {
+            statusEvents.record(StatusEvent.QUEUE_COUNT_THRESHOLD, 20);
+        }
+        statusEvents.record(StatusEvent.BULK_SENT, 100);
+        statusEvents.record(StatusEvent.BULK_SENT, 50);
+        statusEvents.record(StatusEvent.BULK_SENT, 25);
+        assertEquals(2, events.size());
+        assertEquals("QUEUE_COUNT_THRESHOLD 1 20", events.get(0));
+        assertEquals("BULK_SENT 1 100", events.get(1));
+
+        statusEvents.report();
+        assertEquals(4, events.size());
+        assertEquals("BULK_SENT 2 75", events.get(2));
+        assertEquals("QUEUE_COUNT_THRESHOLD 999 20", events.get(3));
+
+        statusEvents.report();
+        assertEquals(4, events.size());
+    }
+
+    @Test
+    public void reportDueFlushesEventsThatStoppedComing() throws Exception {
+        StatusEvents statusEvents = new StatusEvents(reporter, 50);
+        statusEvents.record(StatusEvent.BULK_SENT, 100);
+        statusEvents.record(StatusEvent.BULK_SENT, 50);
+        statusEvents.reportDue();
+        assertEquals(1, events.size());
+
+        Thread.sleep(60);
+        statusEvents.reportDue();
+        assertEquals(2, events.size());
+        assertEquals("BULK_SENT 1 50", events.get(1));
+    }
+
+    @Test
+    public void defaultReporterFormatsAtTheEventLevel() {
+        List<String> warnings = new ArrayList<>();
+        SenderStatusReporter formatting = new LogzioTestStatusReporter(LoggerFactory.getLogger(StatusEventsTest.class)) {
+            @Override
+            public void warning(String msg) {
+                warnings.add(msg);
+            }
+        };
+        formatting.onStatusEvent(StatusEvent.QUEUE_MEMORY_THRESHOLD, 3, 100);
+        assertEquals(1, warnings.size());
+        assertEquals("Logz.io: Dropping logs - dropped 3 logs, as we crossed the memory threshold of 100 MB", warnings.get(0));
+    }
+}